@@ -0,0 +1,240 @@
+"""Long-lived yt-dlp worker.
+
+Started once by YtDlpWorkerPool with the yt-dlp zipapp as argv[1], so Python starts and
+yt-dlp is imported once instead of per request. Requests arrive on stdin, one JSON
+object per line:
+
+    {"op": "run", "id": "<processId>", "args": ["-f", "18", "https://..."]}
+    {"op": "cancel", "id": "<processId>"}
+    {"op": "rate", "id": "<processId>", "rate": 1048576}     bytes/s, 0 = unlimited
+    {"op": "exit"}
+
+Everything written to our real stdout is a protocol line. yt-dlp's own stdout, one line
+at a time, is sent as OUT_PREFIX + the line, unwrapped, because progress lines arrive many
+times a second and the app scans them directly. Lines always belong to the running
+request. Events are PREFIX + JSON:
+
+    {"event": "ready", "version": "..."}
+    {"id": ..., "event": "done", "code": 0, "err": "..."}
+
+Anything else (e.g. output from child processes) is ignored by the app.
+
+Only one request runs at a time; the pool never sends a second before "done".
+
+"cancel" makes yt-dlp raise on its next write. If it is blocked instead (a stalled read,
+an ffmpeg merge), the worker kills its whole process group after CANCEL_GRACE, so
+ffmpeg goes down with it. The worker leads its own group, and SIGTERM from the pool
+(Process.destroy) does the same.
+
+"rate" changes a running download's --limit-rate in place: the downloader reads
+ydl.params['ratelimit'] on every throttle check, so the next chunk honours it without a
+restart. Fragmented (DASH/HLS) downloads copy the params and keep their launch rate.
+"""
+import json
+import os
+import signal
+import sys
+import threading
+
+PREFIX = b"\x1eYTW "
+OUT_PREFIX = b"\x1eYTL "
+MAX_ERR = 64 * 1024
+CANCEL_GRACE = 2.0  # seconds; the pool's own kill follows a second later
+
+sys.path.insert(0, sys.argv[1])
+import yt_dlp  # noqa: E402
+from yt_dlp.version import __version__  # noqa: E402
+
+_proto = sys.__stdout__.buffer
+_proto_lock = threading.Lock()
+_current = None  # the running Job, so its YoutubeDL instance can be found
+
+
+def send(obj):
+    write_proto(PREFIX + json.dumps(obj).encode("ascii") + b"\n")
+
+
+def send_line(line):
+    write_proto(OUT_PREFIX + line.encode("utf-8", "replace") + b"\n")
+
+
+def write_proto(data):
+    with _proto_lock:
+        _proto.write(data)
+        _proto.flush()
+
+
+def kill_group(*_):
+    """Kill this worker along with yt-dlp's children (ffmpeg, aria2c)."""
+    if os.getpgrp() == os.getpid():
+        os.killpg(os.getpgrp(), signal.SIGKILL)
+    # Not a group leader: the group is the app's, so only we go
+    os.kill(os.getpid(), signal.SIGKILL)
+
+
+def abort_if_running(job):
+    if not job.done:
+        # Blocked somewhere it never writes, so it didn't see the flag
+        kill_group()
+
+
+class Cancelled(KeyboardInterrupt):
+    """Raised into yt-dlp on its next write; it unwinds like Ctrl+C."""
+
+
+class Job:
+    def __init__(self, job_id):
+        self.id = job_id
+        self.cancelled = False
+        self.err = []
+        self.err_len = 0
+        self.ydl = None
+        self.done = False
+        self.rate = None  # set by a "rate" op; None keeps the -r from args
+
+    def apply_rate(self):
+        if self.ydl is not None and self.rate is not None:
+            self.ydl.params["ratelimit"] = self.rate or None
+
+
+_ydl_init = yt_dlp.YoutubeDL.__init__
+
+
+def _tracking_init(self, *args, **kwargs):
+    _ydl_init(self, *args, **kwargs)
+    job = _current
+    if job is not None:
+        job.ydl = self
+        # A rate that arrived while yt-dlp was still starting
+        job.apply_rate()
+
+
+yt_dlp.YoutubeDL.__init__ = _tracking_init
+
+
+class LineWriter:
+    """Stands in for sys.stdout during a job: frames each \\n- or \\r-terminated line."""
+    encoding = "utf-8"
+    errors = "replace"
+
+    def __init__(self, job):
+        self.job = job
+        self.pending = ""
+        self.lock = threading.Lock()
+
+    def write(self, s):
+        if self.job.cancelled:
+            raise Cancelled()
+        with self.lock:
+            self.pending += s
+            start = 0
+            for i, ch in enumerate(self.pending):
+                if ch == "\n" or ch == "\r":
+                    if i > start:
+                        send_line(self.pending[start:i])
+                    start = i + 1
+            self.pending = self.pending[start:]
+        return len(s)
+
+    def flush(self):
+        if self.job.cancelled:
+            raise Cancelled()
+
+    def drain(self):
+        if self.pending:
+            send_line(self.pending)
+            self.pending = ""
+
+    def isatty(self):
+        return False
+
+
+class ErrWriter:
+    encoding = "utf-8"
+    errors = "replace"
+
+    def __init__(self, job):
+        self.job = job
+
+    def write(self, s):
+        if self.job.err_len < MAX_ERR:
+            self.job.err.append(s)
+            self.job.err_len += len(s)
+        return len(s)
+
+    def flush(self):
+        pass
+
+    def isatty(self):
+        return False
+
+
+def run(job, args):
+    out = LineWriter(job)
+    err = ErrWriter(job)
+    sys.stdout, sys.stderr = out, err
+    code = 0
+    try:
+        yt_dlp.main(args)
+    except SystemExit as e:
+        if isinstance(e.code, str):
+            err.write(e.code + "\n")
+            code = 1
+        else:
+            code = e.code or 0
+    except Cancelled:
+        err.write("ERROR: Interrupted by user\n")
+        code = 1
+    except BaseException as e:  # noqa: B902 - report anything, keep the worker alive
+        err.write("ERROR: worker: %r\n" % (e,))
+        code = 1
+    finally:
+        sys.stdout, sys.stderr = sys.__stdout__, sys.__stderr__
+    out.drain()
+    if job.cancelled and code == 0:
+        code = 1
+    job.done = True
+    send({"id": job.id, "event": "done", "code": code, "err": "".join(job.err)})
+
+
+def main():
+    global _current
+    try:
+        os.setpgrp()
+    except OSError:
+        pass
+    signal.signal(signal.SIGTERM, kill_group)
+    current = None
+    thread = None
+    send({"event": "ready", "version": __version__})
+    for raw in sys.stdin.buffer:
+        try:
+            msg = json.loads(raw.decode("utf-8"))
+        except ValueError:
+            continue
+        op = msg.get("op")
+        if op == "run":
+            if thread is not None:
+                thread.join()
+            current = Job(msg["id"])
+            _current = current
+            thread = threading.Thread(target=run, args=(current, msg["args"]), daemon=True)
+            thread.start()
+        elif op == "cancel":
+            if current is not None and current.id == msg.get("id") and not current.cancelled:
+                current.cancelled = True
+                timer = threading.Timer(CANCEL_GRACE, abort_if_running, args=(current,))
+                timer.daemon = True
+                timer.start()
+        elif op == "rate":
+            if current is not None and current.id == msg.get("id"):
+                current.rate = max(0, int(msg.get("rate") or 0))
+                current.apply_rate()
+        elif op == "exit":
+            break
+    if thread is not None:
+        thread.join(5)
+
+
+if __name__ == "__main__":
+    main()
@@ -2,22 +2,15 @@ package com.example.ytdownloader;
 
 import android.app.Application;
 
-import com.example.ytdownloader.manager.AppLogger;
-import com.yausername.youtubedl_android.YoutubeDL;
-import com.yausername.ffmpeg.FFmpeg;
+import com.example.ytdownloader.manager.EngineInitializer;
+import com.example.ytdownloader.service.YtDlpWorkerPool;
 
 public class App extends Application {
-    private static final String TAG = "App";
-
     @Override
     public void onCreate() {
         super.onCreate();
-        try {
-            YoutubeDL.getInstance().init(this);
-            FFmpeg.getInstance().init(this);
-            AppLogger.i(TAG, "YoutubeDL and FFmpeg initialized");
-        } catch (Exception e) {
-            AppLogger.e(TAG, "Failed to initialize YoutubeDL/FFmpeg", e);
-        }
+        // Extracting Python/ffmpeg can take seconds on first launch; keep it off the main thread.
+        // Once ready, start a yt-dlp worker so the first parse doesn't wait for Python either.
+        EngineInitializer.start(this).thenRun(() -> YtDlpWorkerPool.get(this).warmUp());
     }
 }
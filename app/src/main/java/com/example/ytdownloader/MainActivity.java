@@ -37,6 +37,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
 import androidx.core.app.ActivityCompat;
@@ -48,11 +49,15 @@ import com.bumptech.glide.Glide;
 import com.example.ytdownloader.adapter.DownloadListAdapter;
 import com.example.ytdownloader.manager.AppLogger;
 import com.example.ytdownloader.manager.CookieStorage;
+import com.example.ytdownloader.manager.EngineInitializer;
 import com.example.ytdownloader.manager.SettingsManager;
 import com.example.ytdownloader.model.DownloadTask;
 import com.example.ytdownloader.model.VideoInfo;
 import com.example.ytdownloader.service.DownloadService;
+import com.example.ytdownloader.service.PlaylistDownloader;
+import com.example.ytdownloader.service.VideoInfoCache;
 import com.example.ytdownloader.service.YoutubeService;
+import com.example.ytdownloader.service.YtDlpWorkerPool;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.button.MaterialButton;
 import com.yausername.youtubedl_android.YoutubeDL;
@@ -65,6 +70,8 @@ import java.util.List;
 public class MainActivity extends AppCompatActivity implements DownloadService.DownloadListener, AppLogger.LogListener {
     private static final String TAG = "MainActivity";
     private static final int REQUEST_NOTIFICATION_PERMISSION = 1001;
+    // Progress frames while the task list isn't visible; state changes still arrive at once
+    private static final long BACKGROUND_PROGRESS_FRAME_MS = 2000;
     private static final String YOUTUBE_LOGIN_URL = "https://accounts.google.com/ServiceLogin?service=youtube&continue=https%3A%2F%2Fwww.youtube.com";
 
     // Download tab views
@@ -96,9 +103,11 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
     // Settings views
     private TextView tvDownloadPath;
     private Spinner spinnerVideoQuality;
+    private Spinner spinnerAutoQuality;
     private Spinner spinnerAudioQuality;
     private SwitchCompat switchDarkMode;
     private Spinner spinnerMaxConcurrent;
+    private TextView tvConcurrencyStatus;
     private Spinner spinnerSpeedLimit;
     private SwitchCompat switchSubtitles;
     private EditText etProxy;
@@ -121,6 +130,7 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
     private Runnable autoParseRunnable;
     private boolean isParsing = false;
     private boolean settingsInitialized = false;
+    private boolean isStarted = false;
 
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
@@ -129,9 +139,12 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
             downloadService = binder.getService();
             downloadService.addListener(MainActivity.this);
             serviceBound = true;
+            downloadService.setProgressFrameInterval(isStarted
+                    ? DownloadService.DEFAULT_PROGRESS_FRAME_MS : BACKGROUND_PROGRESS_FRAME_MS);
 
             adapter.setTasks(downloadService.getAllTasks());
             updateEmptyState();
+            updateConcurrencyStatus();
         }
 
         @Override
@@ -190,9 +203,11 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
         // Settings views
         tvDownloadPath = findViewById(R.id.tvDownloadPath);
         spinnerVideoQuality = findViewById(R.id.spinnerVideoQuality);
+        spinnerAutoQuality = findViewById(R.id.spinnerAutoQuality);
         spinnerAudioQuality = findViewById(R.id.spinnerAudioQuality);
         switchDarkMode = findViewById(R.id.switchDarkMode);
         spinnerMaxConcurrent = findViewById(R.id.spinnerMaxConcurrent);
+        tvConcurrencyStatus = findViewById(R.id.tvConcurrencyStatus);
         spinnerSpeedLimit = findViewById(R.id.spinnerSpeedLimit);
         switchSubtitles = findViewById(R.id.switchSubtitles);
         etProxy = findViewById(R.id.etProxy);
@@ -259,6 +274,7 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
     private void loadYtDlpVersion() {
         new Thread(() -> {
             try {
+                EngineInitializer.start(this).get();
                 String version = YoutubeDL.getInstance().version(this);
                 mainHandler.post(() -> tvYtDlpVersion.setText(version));
             } catch (Exception e) {
@@ -282,6 +298,15 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
             }
         }
 
+        String[] autoQualityValues = getResources().getStringArray(R.array.auto_quality_values);
+        String savedAutoQuality = settingsManager.getAutoQuality();
+        for (int i = 0; i < autoQualityValues.length; i++) {
+            if (autoQualityValues[i].equals(savedAutoQuality)) {
+                spinnerAutoQuality.setSelection(i);
+                break;
+            }
+        }
+
         String[] audioQualityValues = getResources().getStringArray(R.array.audio_quality_values);
         String savedAudioQuality = settingsManager.getAudioQuality();
         for (int i = 0; i < audioQualityValues.length; i++) {
@@ -291,10 +316,10 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
             }
         }
 
-        String[] maxConcurrentOptions = getResources().getStringArray(R.array.max_concurrent_options);
+        String[] maxConcurrentValues = getResources().getStringArray(R.array.max_concurrent_values);
         int savedMaxConcurrent = settingsManager.getMaxConcurrent();
-        for (int i = 0; i < maxConcurrentOptions.length; i++) {
-            if (Integer.parseInt(maxConcurrentOptions[i]) == savedMaxConcurrent) {
+        for (int i = 0; i < maxConcurrentValues.length; i++) {
+            if (Integer.parseInt(maxConcurrentValues[i]) == savedMaxConcurrent) {
                 spinnerMaxConcurrent.setSelection(i);
                 break;
             }
@@ -329,6 +354,17 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
             public void onNothingSelected(AdapterView<?> parent) {}
         });
 
+        spinnerAutoQuality.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int pos, long id) {
+                if (!settingsInitialized) return;
+                String[] values = getResources().getStringArray(R.array.auto_quality_values);
+                settingsManager.setAutoQuality(values[pos]);
+            }
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
         spinnerAudioQuality.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int pos, long id) {
@@ -344,8 +380,9 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int pos, long id) {
                 if (!settingsInitialized) return;
-                String[] options = getResources().getStringArray(R.array.max_concurrent_options);
-                settingsManager.setMaxConcurrent(Integer.parseInt(options[pos]));
+                String[] values = getResources().getStringArray(R.array.max_concurrent_values);
+                settingsManager.setMaxConcurrent(Integer.parseInt(values[pos]));
+                updateConcurrencyStatus();
             }
             @Override
             public void onNothingSelected(AdapterView<?> parent) {}
@@ -888,6 +925,11 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
 
             String videoId = youtubeService.extractVideoId(url);
             if (videoId == null) {
+                String playlistUrl = youtubeService.extractPlaylistUrl(url);
+                if (playlistUrl != null) {
+                    confirmPlaylistDownload(playlistUrl);
+                    return;
+                }
                 Toast.makeText(this, R.string.error_invalid_url, Toast.LENGTH_SHORT).show();
                 appendLog("ERROR", "Invalid URL: " + url);
                 return;
@@ -924,6 +966,41 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
         });
     }
 
+    private void confirmPlaylistDownload(String playlistUrl) {
+        if (!serviceBound) return;
+        new AlertDialog.Builder(this)
+                .setTitle(downloadService.isPlaylistSynced(playlistUrl)
+                        ? R.string.playlist_sync_title : R.string.playlist_download_title)
+                .setItems(R.array.playlist_type_options, (dialog, which) -> startPlaylistDownload(playlistUrl,
+                        which == 0 ? DownloadTask.DownloadType.VIDEO : DownloadTask.DownloadType.AUDIO))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void startPlaylistDownload(String playlistUrl, DownloadTask.DownloadType type) {
+        if (!serviceBound) return;
+        appendLog("INFO", "Playlist download started: " + playlistUrl + " [" + type + "]");
+        downloadService.startPlaylistDownload(playlistUrl, type, new PlaylistDownloader.Listener() {
+            @Override
+            public void onEntryQueued(String title, String formatSpec) {
+                appendLog("INFO", "Playlist entry queued: " + title + " [f=" + formatSpec + "]");
+            }
+
+            @Override
+            public void onEntryFailed(String videoId, String error) {
+                appendLog("WARN", "Playlist entry failed: " + videoId + ": " + error);
+            }
+
+            @Override
+            public void onFinished(int queued, int failed) {
+                mainHandler.post(() -> Toast.makeText(MainActivity.this,
+                        "Playlist: " + queued + " queued" + (failed > 0 ? ", " + failed + " failed" : ""),
+                        Toast.LENGTH_SHORT).show());
+            }
+        });
+        Toast.makeText(this, "Playlist download started", Toast.LENGTH_SHORT).show();
+    }
+
     private void updateYtDlp() {
         btnUpdateYtDlp.setEnabled(false);
         Toast.makeText(this, "Updating yt-dlp...", Toast.LENGTH_SHORT).show();
@@ -931,7 +1008,12 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
 
         new Thread(() -> {
             try {
+                EngineInitializer.start(this).get();
                 UpdateStatus status = YoutubeDL.getInstance().updateYoutubeDL(this, UpdateChannel.STABLE.INSTANCE);
+                if (status == UpdateStatus.DONE) {
+                    // Workers still have the old yt-dlp imported
+                    YtDlpWorkerPool.get(this).restart();
+                }
                 mainHandler.post(() -> {
                     btnUpdateYtDlp.setEnabled(true);
                     if (status == UpdateStatus.DONE) {
@@ -971,6 +1053,19 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
     }
 
     private void parseVideo(String videoId) {
+        // The one lookup for this open; youtubeService.parseVideo extracts without another
+        VideoInfoCache.Entry cached = VideoInfoCache.get().lookup(videoId);
+        if (cached != null) {
+            // Show what we have right away; a stale entry is re-parsed quietly behind it
+            appendLog("INFO", "Showing cached info: " + cached.getInfo().getTitle()
+                    + (cached.isStale() ? " (refreshing)" : ""));
+            displayVideoInfo(cached.getInfo());
+            maybeAutoDownload(cached.getInfo());
+            if (cached.isStale()) {
+                refreshVideoInfo(videoId);
+            }
+            return;
+        }
         if (isParsing) return;
         isParsing = true;
         pendingVideoId = videoId;
@@ -986,6 +1081,7 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
                     showLoading(false);
                     appendLog("INFO", "Parse success: " + videoInfo.getTitle());
                     displayVideoInfo(videoInfo);
+                    maybeAutoDownload(videoInfo);
                 });
             }
 
@@ -1012,6 +1108,54 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
         });
     }
 
+    /**
+     * With auto quality on, start the video download at the quality the budget allows
+     * right away instead of waiting for a chip tap. Runs on fresh parses and cache hits
+     * alike, and is skipped for videos already downloaded or downloading. With no
+     * throughput measured yet on this network the pick goes by the data budget, or the
+     * lowest format, and the user is told so they can pick a higher one themselves.
+     */
+    private void maybeAutoDownload(VideoInfo videoInfo) {
+        if (!serviceBound || !settingsManager.isAutoQuality()) return;
+        if (downloadService.hasActiveDownload(videoInfo.getVideoId())
+                || downloadService.hasCompletedDownload(videoInfo.getVideoId())) return;
+        VideoInfo.FormatOption format = downloadService.pickAutoQuality(videoInfo.getVideoFormats());
+        if (format == null) return;
+        if (downloadService.isAutoQualityGuess()) {
+            appendLog("INFO", "Auto quality: no throughput estimate yet, picked " + format.getQuality()
+                    + " by data budget");
+            Toast.makeText(this, getString(R.string.auto_quality_no_estimate, format.getQuality()),
+                    Toast.LENGTH_LONG).show();
+        } else {
+            appendLog("INFO", "Auto quality picked " + format.getQuality());
+        }
+        startFormatDownload(videoInfo, format, true);
+    }
+
+    private void refreshVideoInfo(String videoId) {
+        youtubeService.parseVideo(videoId, new YoutubeService.ParseCallback() {
+            @Override
+            public void onSuccess(VideoInfo videoInfo) {
+                mainHandler.post(() -> {
+                    // Only if the user is still looking at this video
+                    if (currentVideoInfo != null && currentVideoInfo.getVideoId().equals(videoId)) {
+                        displayVideoInfo(videoInfo);
+                    }
+                });
+            }
+
+            @Override
+            public void onBotDetected() {
+                appendLog("WARN", "Background refresh of " + videoId + " hit bot detection");
+            }
+
+            @Override
+            public void onError(String error) {
+                appendLog("WARN", "Background refresh of " + videoId + " failed: " + error);
+            }
+        });
+    }
+
     private void displayVideoInfo(VideoInfo videoInfo) {
         currentVideoInfo = videoInfo;
         cardVideoInfo.setVisibility(View.VISIBLE);
@@ -1138,30 +1282,23 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
     private void startFormatDownload(VideoInfo videoInfo, VideoInfo.FormatOption format, boolean isVideo) {
         if (!serviceBound) return;
 
-        String formatSpec;
-        DownloadTask.DownloadType type;
-        if (isVideo) {
-            type = DownloadTask.DownloadType.VIDEO;
-            if (!format.hasAudio()) {
-                // Pure video -> auto-merge with best audio
-                formatSpec = format.getFormatId() + "+bestaudio";
-            } else {
-                formatSpec = format.getFormatId();
-            }
-        } else {
-            type = DownloadTask.DownloadType.AUDIO;
-            formatSpec = format.getFormatId();
-        }
+        // Video-only formats carry the audio FormatRanker paired them with
+        String formatSpec = format.getFormatSpec();
+        long expectedBytes = format.getDownloadSize();
+        DownloadTask.DownloadType type = isVideo
+                ? DownloadTask.DownloadType.VIDEO : DownloadTask.DownloadType.AUDIO;
 
         appendLog("INFO", "Download started: " + videoInfo.getTitle() + " [" + type + " " + format.getQuality() + " f=" + formatSpec + "]");
 
-        downloadService.createTask(
+        String taskId = downloadService.createTask(
                 videoInfo.getVideoId(),
                 videoInfo.getTitle(),
                 videoInfo.getThumbnailUrl(),
                 type,
-                formatSpec
+                formatSpec,
+                expectedBytes
         );
+        downloadService.setTaskWeight(taskId, DownloadService.MANUAL_WEIGHT);
 
         Toast.makeText(this, "Download started: " + format.getQuality(), Toast.LENGTH_SHORT).show();
 
@@ -1285,6 +1422,27 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
         mainHandler.post(() -> adapter.updateTask(task));
     }
 
+    @Override
+    public void onTasksUpdated(List<DownloadTask> tasks) {
+        mainHandler.post(() -> {
+            for (DownloadTask task : tasks) {
+                adapter.updateTask(task);
+            }
+            updateConcurrencyStatus();
+        });
+    }
+
+    /** Under "Auto", show the limit the adaptive controller settled on and why. */
+    private void updateConcurrencyStatus() {
+        if (!serviceBound || !settingsManager.isAdaptiveConcurrency()) {
+            tvConcurrencyStatus.setVisibility(View.GONE);
+            return;
+        }
+        tvConcurrencyStatus.setText(getString(R.string.settings_concurrency_status,
+                downloadService.getConcurrencyLimit(), downloadService.getConcurrencyReason()));
+        tvConcurrencyStatus.setVisibility(View.VISIBLE);
+    }
+
     @Override
     public void onTaskCompleted(DownloadTask task) {
         mainHandler.post(() -> {
@@ -1310,6 +1468,24 @@ public class MainActivity extends AppCompatActivity implements DownloadService.D
         // Log is still collected by AppLogger, just not displayed in UI
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        isStarted = true;
+        if (serviceBound) {
+            downloadService.setProgressFrameInterval(DownloadService.DEFAULT_PROGRESS_FRAME_MS);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        isStarted = false;
+        if (serviceBound) {
+            downloadService.setProgressFrameInterval(BACKGROUND_PROGRESS_FRAME_MS);
+        }
+        super.onStop();
+    }
+
     @Override
     protected void onDestroy() {
         AppLogger.removeListener(this);
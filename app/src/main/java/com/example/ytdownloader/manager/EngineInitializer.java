@@ -0,0 +1,86 @@
+package com.example.ytdownloader.manager;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.yausername.ffmpeg.FFmpeg;
+import com.yausername.youtubedl_android.YoutubeDL;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Initializes YoutubeDL and FFmpeg off the main thread.
+ *
+ * The first launch after an install or update extracts the bundled Python and ffmpeg,
+ * which takes long enough to hold up the first frame if done in Application.onCreate.
+ * {@link #start} kicks it off and returns a future that completes with a per-stage timing
+ * report; everything that runs yt-dlp waits on it. A failed init is retried on the next
+ * start() call.
+ */
+public class EngineInitializer {
+    private static final String TAG = "EngineInit";
+
+    /** How long each init stage took, in order. */
+    public static class Report {
+        private final Map<String, Long> stageMs = new LinkedHashMap<>();
+        private long sinceProcessStartMs;
+
+        public Map<String, Long> getStageMs() {
+            return stageMs;
+        }
+
+        /** From process start until both engines were ready. */
+        public long getSinceProcessStartMs() {
+            return sinceProcessStartMs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Startup:");
+            for (Map.Entry<String, Long> e : stageMs.entrySet()) {
+                sb.append(' ').append(e.getKey()).append('=').append(e.getValue()).append("ms");
+            }
+            return sb.append(", ready ").append(sinceProcessStartMs).append("ms after process start").toString();
+        }
+    }
+
+    private static CompletableFuture<Report> ready; // guarded by EngineInitializer.class
+
+    /** Start initialization if it isn't running or done already; returns the readiness future. */
+    public static synchronized CompletableFuture<Report> start(Context context) {
+        if (ready != null && !ready.isCompletedExceptionally()) {
+            return ready;
+        }
+        Context app = context.getApplicationContext();
+        CompletableFuture<Report> future = new CompletableFuture<>();
+        ready = future;
+        Thread thread = new Thread(() -> {
+            Report report = new Report();
+            try {
+                stage(report, "yt-dlp", () -> YoutubeDL.getInstance().init(app));
+                stage(report, "ffmpeg", () -> FFmpeg.getInstance().init(app));
+                report.sinceProcessStartMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+                AppLogger.i(TAG, report.toString());
+                future.complete(report);
+            } catch (Exception e) {
+                AppLogger.e(TAG, "Failed to initialize YoutubeDL/FFmpeg", e);
+                future.completeExceptionally(e);
+            }
+        }, "engine-init");
+        thread.start();
+        return future;
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static void stage(Report report, String name, Stage stage) throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        stage.run();
+        report.stageMs.put(name, SystemClock.elapsedRealtime() - start);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.ytdownloader.manager;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Application-scoped OkHttp client. All in-app HTTP shares one connection pool,
+ * dispatcher and disk cache, so repeated fetches reuse warm (HTTP/2, TLS-resumed)
+ * connections instead of a fresh handshake per file.
+ */
+public class HttpClientManager {
+    private static final String TAG = "HttpClient";
+    private static final long CACHE_SIZE = 20L * 1024 * 1024;
+
+    private static volatile OkHttpClient client;
+
+    public static OkHttpClient get(Context context) {
+        OkHttpClient c = client;
+        if (c == null) {
+            synchronized (HttpClientManager.class) {
+                c = client;
+                if (c == null) {
+                    c = build(context.getApplicationContext());
+                    client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static OkHttpClient build(Context context) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(16);
+        dispatcher.setMaxRequestsPerHost(6);
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+                .cache(new Cache(new File(context.getCacheDir(), "http_cache"), CACHE_SIZE))
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .eventListenerFactory(call -> new TimingListener())
+                .build();
+    }
+
+    /** Per-call timing: DNS, connect, TLS, time to first byte, and whether the connection was reused. */
+    private static class TimingListener extends EventListener {
+        private long callStart, dnsStart, connectStart, secureStart, requestStart;
+        private long dnsMs = -1, connectMs = -1, tlsMs = -1, ttfbMs = -1;
+        private boolean newConnection;
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            dnsMs = elapsedMs(dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+            newConnection = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsMs = elapsedMs(secureStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            connectMs = elapsedMs(connectStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            ttfbMs = elapsedMs(requestStart);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            log(call, "ok");
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            log(call, "failed: " + ioe.getMessage());
+        }
+
+        private void log(Call call, String outcome) {
+            AppLogger.d(TAG, call.request().url().host() + " " + outcome
+                    + " total=" + elapsedMs(callStart) + "ms"
+                    + (newConnection
+                        ? " dns=" + dnsMs + "ms connect=" + connectMs + "ms tls=" + tlsMs + "ms"
+                        : " (reused connection)")
+                    + " ttfb=" + ttfbMs + "ms");
+        }
+
+        private static long elapsedMs(long startNanos) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+    }
+}
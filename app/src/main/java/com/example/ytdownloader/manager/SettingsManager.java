@@ -8,11 +8,16 @@ public class SettingsManager {
 
     private static final String KEY_VIDEO_QUALITY = "video_quality";
     private static final String KEY_AUDIO_QUALITY = "audio_quality";
+    private static final String KEY_AUTO_QUALITY = "auto_quality";
     private static final String KEY_DARK_MODE = "dark_mode";
-    private static final String KEY_MAX_CONCURRENT = "max_concurrent";
-    private static final String KEY_SPEED_LIMIT = "speed_limit";
+    public static final String KEY_MAX_CONCURRENT = "max_concurrent";
+    public static final String KEY_SPEED_LIMIT = "speed_limit";
     private static final String KEY_DOWNLOAD_SUBTITLES = "download_subtitles";
     private static final String KEY_PROXY = "proxy";
+    private static final String KEY_DIRECT_MEDIA_OUTPUT = "direct_media_output";
+
+    /** getMaxConcurrent() value meaning "adapt to the network". */
+    public static final int MAX_CONCURRENT_AUTO = 0;
 
     private final SharedPreferences prefs;
 
@@ -20,6 +25,15 @@ public class SettingsManager {
         this.prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
     }
 
+    /** Listeners are held weakly by SharedPreferences; callers must keep a strong reference. */
+    public void registerOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        prefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public void unregisterOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        prefs.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
     // Video quality
     public String getVideoQuality() {
         return prefs.getString(KEY_VIDEO_QUALITY, "best");
@@ -29,6 +43,40 @@ public class SettingsManager {
         prefs.edit().putString(KEY_VIDEO_QUALITY, quality).apply();
     }
 
+    // Auto quality: "off", "time:<minutes>" or "data:<megabytes>"
+    public String getAutoQuality() {
+        return prefs.getString(KEY_AUTO_QUALITY, "off");
+    }
+
+    public void setAutoQuality(String budget) {
+        prefs.edit().putString(KEY_AUTO_QUALITY, budget).apply();
+    }
+
+    /** Pick the video quality by budget and start downloading right after parsing. */
+    public boolean isAutoQuality() {
+        return getAutoQualityTimeBudgetSeconds() > 0 || getAutoQualityDataBudgetBytes() > 0;
+    }
+
+    /** How long an auto-quality download may take, in seconds, or 0 if not time-budgeted. */
+    public long getAutoQualityTimeBudgetSeconds() {
+        return budgetValue("time:") * 60;
+    }
+
+    /** How large an auto-quality download may be, in bytes, or 0 if not size-budgeted. */
+    public long getAutoQualityDataBudgetBytes() {
+        return budgetValue("data:") * 1024 * 1024;
+    }
+
+    private long budgetValue(String prefix) {
+        String budget = getAutoQuality();
+        if (!budget.startsWith(prefix)) return 0;
+        try {
+            return Math.max(0, Long.parseLong(budget.substring(prefix.length())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     // Audio quality
     public String getAudioQuality() {
         return prefs.getString(KEY_AUDIO_QUALITY, "best");
@@ -47,7 +95,7 @@ public class SettingsManager {
         prefs.edit().putBoolean(KEY_DARK_MODE, enabled).apply();
     }
 
-    // Max concurrent downloads
+    // Max concurrent downloads (MAX_CONCURRENT_AUTO for adaptive)
     public int getMaxConcurrent() {
         return prefs.getInt(KEY_MAX_CONCURRENT, 1);
     }
@@ -56,6 +104,10 @@ public class SettingsManager {
         prefs.edit().putInt(KEY_MAX_CONCURRENT, max).apply();
     }
 
+    public boolean isAdaptiveConcurrency() {
+        return getMaxConcurrent() == MAX_CONCURRENT_AUTO;
+    }
+
     // Speed limit
     public String getSpeedLimit() {
         return prefs.getString(KEY_SPEED_LIMIT, "unlimited");
@@ -65,6 +117,23 @@ public class SettingsManager {
         prefs.edit().putString(KEY_SPEED_LIMIT, limit).apply();
     }
 
+    /** Speed limit in bytes per second ("1M", "500K", ...), or 0 when unlimited. */
+    public long getSpeedLimitBytesPerSecond() {
+        String limit = getSpeedLimit().trim().toUpperCase();
+        long multiplier = 1;
+        if (limit.endsWith("K")) {
+            multiplier = 1024;
+        } else if (limit.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        }
+        String number = multiplier > 1 ? limit.substring(0, limit.length() - 1) : limit;
+        try {
+            return Math.max(0, Long.parseLong(number) * multiplier);
+        } catch (NumberFormatException e) {
+            return 0; // "unlimited"
+        }
+    }
+
     // Download subtitles
     public boolean isDownloadSubtitles() {
         return prefs.getBoolean(KEY_DOWNLOAD_SUBTITLES, false);
@@ -82,4 +151,13 @@ public class SettingsManager {
     public void setProxy(String proxy) {
         prefs.edit().putString(KEY_PROXY, proxy).apply();
     }
+
+    // Write videos straight into a pending MediaStore entry (Android 11+)
+    public boolean isDirectMediaOutput() {
+        return prefs.getBoolean(KEY_DIRECT_MEDIA_OUTPUT, true);
+    }
+
+    public void setDirectMediaOutput(boolean enabled) {
+        prefs.edit().putBoolean(KEY_DIRECT_MEDIA_OUTPUT, enabled).apply();
+    }
 }
@@ -10,6 +10,13 @@ public class DownloadTask {
         CANCELLED
     }
 
+    /** What a yt-dlp download is doing while DOWNLOADING. */
+    public enum Phase {
+        DOWNLOAD,
+        MERGE,
+        POSTPROCESS
+    }
+
     public enum DownloadType {
         VIDEO,
         AUDIO,
@@ -31,6 +38,16 @@ public class DownloadTask {
     private long downloadedBytes;
     private String downloadUrl;
     private String cachePath; // partial download path in cache dir for resume
+    private long createdAt;
+    private String sha256; // digest of the finalized output file
+    private String mediaUri; // MediaStore entry the output was published as
+    private long expectedBytes; // size estimate from the format list, 0 if unknown
+    // Live yt-dlp progress; not persisted
+    private Phase phase = Phase.DOWNLOAD;
+    private long speed = -1; // bytes/s, -1 if unknown
+    private long etaSeconds = -1;
+    private int fragmentIndex = -1;
+    private int fragmentCount = -1;
 
     public DownloadTask(String id, String videoId, String title, String thumbnailUrl, DownloadType downloadType) {
         this.id = id;
@@ -40,6 +57,7 @@ public class DownloadTask {
         this.downloadType = downloadType;
         this.status = Status.PENDING;
         this.progress = 0;
+        this.createdAt = System.currentTimeMillis();
     }
 
     public String getId() { return id; }
@@ -78,12 +96,45 @@ public class DownloadTask {
     public String getCachePath() { return cachePath; }
     public void setCachePath(String cachePath) { this.cachePath = cachePath; }
 
+    public long getCreatedAt() { return createdAt; }
+    public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+
+    public String getMediaUri() { return mediaUri; }
+    public void setMediaUri(String mediaUri) { this.mediaUri = mediaUri; }
+
+    public long getExpectedBytes() { return expectedBytes; }
+    public void setExpectedBytes(long expectedBytes) { this.expectedBytes = expectedBytes; }
+
+    public Phase getPhase() { return phase; }
+    public void setPhase(Phase phase) { this.phase = phase; }
+
+    public long getSpeed() { return speed; }
+    public void setSpeed(long speed) { this.speed = speed; }
+
+    public long getEtaSeconds() { return etaSeconds; }
+    public void setEtaSeconds(long etaSeconds) { this.etaSeconds = etaSeconds; }
+
+    public int getFragmentIndex() { return fragmentIndex; }
+    public int getFragmentCount() { return fragmentCount; }
+    public void setFragments(int index, int count) {
+        this.fragmentIndex = index;
+        this.fragmentCount = count;
+    }
+
     public String getStatusText() {
         switch (status) {
-            case PENDING: return "Preparing...";
+            case PENDING: return "Queued";
             case DOWNLOADING:
+                if (phase == Phase.MERGE) return "Merging...";
+                if (phase == Phase.POSTPROCESS) return "Processing...";
                 if (totalBytes > 0 && downloadedBytes > 0) {
-                    return formatBytes(downloadedBytes) + " / " + formatBytes(totalBytes);
+                    String text = formatBytes(downloadedBytes) + " / " + formatBytes(totalBytes);
+                    if (speed > 0) text += " · " + formatBytes(speed) + "/s";
+                    if (etaSeconds >= 0) text += " · " + formatEta(etaSeconds);
+                    return text;
                 }
                 if (progress > 0) {
                     return "Downloading... " + progress + "%";
@@ -104,6 +155,11 @@ public class DownloadTask {
         }
     }
 
+    private static String formatEta(long seconds) {
+        if (seconds >= 3600) return String.format("%d:%02d:%02d left", seconds / 3600, seconds % 3600 / 60, seconds % 60);
+        return String.format("%d:%02d left", seconds / 60, seconds % 60);
+    }
+
     private static String formatBytes(long bytes) {
         if (bytes <= 0) return "0 B";
         if (bytes < 1024L * 1024) return String.format("%.1f KB", bytes / 1024.0);
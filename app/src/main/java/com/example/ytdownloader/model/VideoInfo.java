@@ -21,6 +21,14 @@ public class VideoInfo {
         private boolean hasAudio;
         private boolean hasVideo;
         private String bestAudioFormatId;
+        private long bestAudioContentLength;
+        private String vcodec = "none";
+        private String acodec = "none";
+        private int width;
+        private int height;
+        private double fps;
+        private double tbr;
+        private String dynamicRange;
 
         public FormatOption(String formatId, String quality, String mimeType, String ext, long contentLength, boolean hasAudio, boolean hasVideo) {
             this.formatId = formatId;
@@ -43,6 +51,52 @@ public class VideoInfo {
         public String getBestAudioFormatId() { return bestAudioFormatId; }
         public void setBestAudioFormatId(String bestAudioFormatId) { this.bestAudioFormatId = bestAudioFormatId; }
 
+        /** Pair a video-only format with the audio stream to merge it with. */
+        public void setBestAudio(FormatOption audio) {
+            this.bestAudioFormatId = audio.getFormatId();
+            this.bestAudioContentLength = audio.getContentLength();
+        }
+
+        public String getVcodec() { return vcodec; }
+        public String getAcodec() { return acodec; }
+        public void setCodecs(String vcodec, String acodec) {
+            this.vcodec = vcodec;
+            this.acodec = acodec;
+        }
+
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        public void setDimensions(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        public double getFps() { return fps; }
+        public void setFps(double fps) { this.fps = fps; }
+
+        /** Total bitrate in kbit/s, 0 if unknown. */
+        public double getTbr() { return tbr; }
+        public void setTbr(double tbr) { this.tbr = tbr; }
+
+        /** "SDR", "HDR10", "HLG", ... or null if not reported. */
+        public String getDynamicRange() { return dynamicRange; }
+        public void setDynamicRange(String dynamicRange) { this.dynamicRange = dynamicRange; }
+
+        public boolean isHdr() {
+            return dynamicRange != null && !"SDR".equals(dynamicRange);
+        }
+
+        /** The -f spec to download this option; video-only formats merge with their paired audio. */
+        public String getFormatSpec() {
+            if (!hasVideo || hasAudio) return formatId;
+            return formatId + "+" + (bestAudioFormatId != null ? bestAudioFormatId : "bestaudio");
+        }
+
+        /** Expected size of what getFormatSpec downloads, including paired audio. */
+        public long getDownloadSize() {
+            return !hasVideo || hasAudio ? contentLength : contentLength + bestAudioContentLength;
+        }
+
         @Override
         public String toString() {
             String size = contentLength > 0 ? " (" + formatSize(contentLength) + ")" : "";
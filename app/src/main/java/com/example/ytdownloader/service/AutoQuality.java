@@ -0,0 +1,44 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.model.VideoInfo;
+
+import java.util.List;
+
+/**
+ * Picks a video quality by budget instead of by a fixed preset: the highest format whose
+ * download (video plus paired audio) is expected to finish within the time budget at the
+ * estimated throughput, and fits the data budget.
+ */
+public class AutoQuality {
+
+    private AutoQuality() {
+    }
+
+    /**
+     * @param formats         video formats sorted ascending, as in VideoInfo
+     * @param bytesPerSec     expected throughput for this download; needed for a time budget
+     * @param timeBudgetSec   0 for no time budget
+     * @param dataBudgetBytes 0 for no data budget
+     * @return the chosen format, the lowest one if none fits, or null if formats is empty.
+     *         A time budget without a throughput estimate can't be judged, so the pick
+     *         falls back to the data budget alone, or to the lowest format without one
+     */
+    public static VideoInfo.FormatOption select(List<VideoInfo.FormatOption> formats, double bytesPerSec,
+                                                long timeBudgetSec, long dataBudgetBytes) {
+        if (formats == null || formats.isEmpty()) return null;
+        if (timeBudgetSec > 0 && bytesPerSec <= 0) {
+            if (dataBudgetBytes <= 0) return formats.get(0);
+            timeBudgetSec = 0;
+        }
+        VideoInfo.FormatOption best = null;
+        for (VideoInfo.FormatOption format : formats) {
+            long size = format.getDownloadSize();
+            // Unknown size can't be checked against a budget
+            if (size <= 0) continue;
+            if (dataBudgetBytes > 0 && size > dataBudgetBytes) continue;
+            if (timeBudgetSec > 0 && size / bytesPerSec > timeBudgetSec) continue;
+            best = format;
+        }
+        return best != null ? best : formats.get(0);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global download bandwidth limit, shared by every active task.
+ *
+ * One token bucket caps the total rate; each task additionally gets a bucket sized to
+ * its weighted share of that total. In-app transfers call {@link Lease#acquire} per
+ * buffer, so changing the limit, a weight or the set of running tasks rebalances them on
+ * the next read. yt-dlp runs are throttled by yt-dlp itself; DownloadService pushes their
+ * new share to the running process after each change.
+ */
+public class BandwidthGovernor {
+    private static final String TAG = "BandwidthGovernor";
+    // Never sleep longer than this at once, so limit changes take effect promptly
+    private static final long MAX_WAIT_MS = 100;
+
+    private final TokenBucket global = new TokenBucket();
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private volatile long limitBytesPerSec;
+
+    /** @param bytesPerSec total budget, or 0 for unlimited */
+    public BandwidthGovernor(long bytesPerSec) {
+        setLimit(bytesPerSec);
+    }
+
+    /** A task's current share in bytes per second, or 0 if unlimited or not registered. */
+    public long getRate(String taskId) {
+        Lease lease = leases.get(taskId);
+        return lease != null ? lease.getRate() : 0;
+    }
+
+    /** Change the total budget; running in-app transfers pick it up immediately. */
+    public synchronized void setLimit(long bytesPerSec) {
+        limitBytesPerSec = Math.max(0, bytesPerSec);
+        global.setRate(limitBytesPerSec);
+        rebalance();
+        AppLogger.i(TAG, "Limit " + (limitBytesPerSec > 0 ? limitBytesPerSec + " B/s" : "unlimited")
+                + " across " + leases.size() + " tasks");
+    }
+
+    /** Register a running task, or return its existing lease. */
+    public synchronized Lease open(String taskId) {
+        Lease lease = leases.get(taskId);
+        if (lease == null) {
+            lease = new Lease();
+            leases.put(taskId, lease);
+            rebalance();
+        }
+        return lease;
+    }
+
+    /** Drop a task's share so the others get it back. Safe to call more than once. */
+    public synchronized void release(String taskId) {
+        if (leases.remove(taskId) != null) {
+            rebalance();
+        }
+    }
+
+    /** Relative share of the budget (default 1). Takes effect for running in-app transfers. */
+    public synchronized void setWeight(String taskId, int weight) {
+        Lease lease = leases.get(taskId);
+        if (lease != null) {
+            lease.weight = Math.max(1, weight);
+            rebalance();
+        }
+    }
+
+    private void rebalance() {
+        int totalWeight = 0;
+        for (Lease lease : leases.values()) {
+            totalWeight += lease.weight;
+        }
+        for (Lease lease : leases.values()) {
+            lease.bucket.setRate(limitBytesPerSec > 0 ? limitBytesPerSec * lease.weight / totalWeight : 0);
+        }
+    }
+
+    public class Lease {
+        private final TokenBucket bucket = new TokenBucket();
+        private int weight = 1;
+
+        /** This task's current share in bytes per second, or 0 if unlimited. */
+        public long getRate() {
+            return bucket.rate;
+        }
+
+        /** Block until n more bytes may be transferred under both the task and global limits. */
+        public void acquire(int n) throws InterruptedException {
+            bucket.acquire(n);
+            global.acquire(n);
+        }
+    }
+
+    /**
+     * Token bucket that allows debt: a caller takes what it read and then sleeps off any
+     * deficit, so reads never have to be split to fit the bucket.
+     */
+    private static class TokenBucket {
+        private volatile long rate; // bytes per second, 0 = unlimited
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+
+        synchronized void setRate(long bytesPerSec) {
+            refill();
+            rate = bytesPerSec;
+            // Don't let an old burst allowance or debt carry over to the new rate
+            tokens = Math.max(-bytesPerSec, Math.min(tokens, bytesPerSec));
+            notifyAll();
+        }
+
+        synchronized void acquire(int n) throws InterruptedException {
+            if (rate <= 0) return;
+            refill();
+            tokens -= n;
+            while (rate > 0 && tokens < 0) {
+                long waitMs = (long) Math.ceil(-tokens * 1000 / rate);
+                wait(Math.max(1, Math.min(waitMs, MAX_WAIT_MS)));
+                refill();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                // At most one second of burst
+                tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / 1e9);
+            }
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.model.DownloadTask;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AIMD controller for the number of simultaneous downloads in "Auto" mode.
+ *
+ * Sampled on a fixed window: while the queue has work and every slot is busy, the limit
+ * is raised by one as long as the previous raise bought at least PROBE_GAIN more aggregate
+ * throughput; a raise that didn't pay off is undone and retried later. Any HTTP 429, or a
+ * run of windows with no bytes moving at all, halves the limit. Windows in which every
+ * running task is merging or postprocessing move no network bytes by design and are skipped.
+ */
+public class ConcurrencyController {
+    private static final String TAG = "Concurrency";
+    public static final long SAMPLE_MS = 5000;
+    private static final int MIN_LIMIT = 1;
+    static final int MAX_LIMIT = 6;
+    private static final int INITIAL_LIMIT = 2;
+    private static final double PROBE_GAIN = 1.10;
+    private static final int STALL_WINDOWS = 3;
+    // After a cut or a failed probe, hold this many windows before probing upwards again
+    private static final int HOLD_WINDOWS = 6;
+
+    private int limit = INITIAL_LIMIT;
+    private String reason = "initial";
+
+    private final Map<String, Long> lastBytes = new HashMap<>();
+    private int rateLimitedCount;
+    private int stalledWindows;
+    private int holdWindows;
+    // Throughput measured just before the last increase; 0 when no probe is outstanding
+    private double probeBaseline;
+    private int probeWindows;
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /** Why the limit is what it is, for display and logs. */
+    public synchronized String getReason() {
+        return reason;
+    }
+
+    /** The server answered 429; applied at the next sample. */
+    public synchronized void recordRateLimited() {
+        rateLimitedCount++;
+    }
+
+    /**
+     * Close one sample window.
+     *
+     * @param running tasks currently holding a slot
+     * @param slots   slots in use; below running.size() when batched tasks share one
+     * @param queued  tasks waiting for one
+     * @return true if the limit changed
+     */
+    public synchronized boolean sample(Collection<DownloadTask> running, int slots, int queued) {
+        long delta = 0;
+        boolean transferring = false;
+        Map<String, Long> seen = new HashMap<>();
+        for (DownloadTask task : running) {
+            transferring |= task.getPhase() == DownloadTask.Phase.DOWNLOAD;
+            long bytes = task.getDownloadedBytes();
+            Long previous = lastBytes.get(task.getId());
+            // First sighting only sets the baseline, so resumed tasks don't count old bytes
+            if (previous != null && bytes > previous) {
+                delta += bytes - previous;
+            }
+            seen.put(task.getId(), bytes);
+        }
+        lastBytes.clear();
+        lastBytes.putAll(seen);
+        double throughput = delta * 1000.0 / SAMPLE_MS;
+
+        int before = limit;
+        if (rateLimitedCount > 0) {
+            decrease("HTTP 429 x" + rateLimitedCount);
+            rateLimitedCount = 0;
+        } else if (!running.isEmpty() && delta == 0 && !transferring) {
+            // Only ffmpeg is working; neither a stall nor a throughput reading
+            return false;
+        } else if (!running.isEmpty() && delta == 0) {
+            if (++stalledWindows >= STALL_WINDOWS) {
+                decrease("stalled for " + (stalledWindows * SAMPLE_MS / 1000) + "s");
+                stalledWindows = 0;
+            }
+        } else {
+            stalledWindows = 0;
+            if (probeBaseline > 0) {
+                // Judge the last raise once the extra task has had a full window to ramp up
+                if (++probeWindows >= 2) {
+                    if (throughput >= probeBaseline * PROBE_GAIN) {
+                        reason = String.format("throughput up to %.0f KiB/s", throughput / 1024);
+                    } else {
+                        limit = Math.max(MIN_LIMIT, limit - 1);
+                        reason = String.format("no gain above %d (%.0f KiB/s)", limit, throughput / 1024);
+                        holdWindows = HOLD_WINDOWS;
+                    }
+                    probeBaseline = 0;
+                }
+            } else if (holdWindows > 0) {
+                holdWindows--;
+            } else if (queued > 0 && slots >= limit && limit < MAX_LIMIT) {
+                probeBaseline = Math.max(1, throughput);
+                probeWindows = 0;
+                limit++;
+                reason = String.format("probing (%.0f KiB/s at %d)", throughput / 1024, limit - 1);
+            }
+        }
+
+        if (limit != before) {
+            AppLogger.i(TAG, "Limit " + before + " -> " + limit + ": " + reason);
+            return true;
+        }
+        return false;
+    }
+
+    private void decrease(String why) {
+        limit = Math.max(MIN_LIMIT, limit / 2);
+        reason = why;
+        probeBaseline = 0;
+        holdWindows = HOLD_WINDOWS;
+    }
+}
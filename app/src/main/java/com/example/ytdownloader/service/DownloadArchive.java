@@ -0,0 +1,105 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Video IDs already downloaded from one playlist or channel.
+ *
+ * The file uses yt-dlp's --download-archive format ("youtube &lt;id&gt;" per line), so it
+ * can be handed straight to yt-dlp; lookups go to an in-memory set loaded on first use.
+ * IDs are appended only once a download has completed, matching yt-dlp's semantics.
+ */
+public class DownloadArchive {
+    private static final String TAG = "DownloadArchive";
+    private static final String EXTRACTOR = "youtube";
+
+    private final File file;
+    private Set<String> ids; // guarded by this; null until loaded
+
+    public DownloadArchive(File dir, String sourceUrl) {
+        this.file = new File(dir, keyFor(sourceUrl) + ".txt");
+    }
+
+    /** File name for a source: its playlist ID or channel path, made filesystem-safe. */
+    static String keyFor(String sourceUrl) {
+        String key = sourceUrl;
+        int list = key.indexOf("list=");
+        if (list >= 0) {
+            key = key.substring(list + 5);
+        } else {
+            int host = key.indexOf("youtube.com/");
+            if (host >= 0) key = key.substring(host + 12);
+        }
+        StringBuilder sb = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            boolean safe = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '@';
+            sb.append(safe ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** True once anything from this source has been downloaded, i.e. a re-sync can stop early. */
+    public boolean exists() {
+        return file.length() > 0;
+    }
+
+    public synchronized boolean contains(String videoId) {
+        return load().contains(videoId);
+    }
+
+    public synchronized int size() {
+        return load().size();
+    }
+
+    public synchronized void add(String videoId) {
+        if (!load().add(videoId)) return;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            out.write(EXTRACTOR + " " + videoId + "\n");
+        } catch (IOException e) {
+            AppLogger.e(TAG, "Failed to append to " + file.getName(), e);
+        }
+    }
+
+    private Set<String> load() {
+        if (ids != null) return ids;
+        ids = new HashSet<>();
+        if (!file.exists()) return ids;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.indexOf(' ');
+                // Entries from other extractors can't match a YouTube ID
+                if (space > 0 && line.startsWith(EXTRACTOR) && space == EXTRACTOR.length()) {
+                    ids.add(line.substring(space + 1).trim());
+                }
+            }
+            AppLogger.i(TAG, "Loaded " + ids.size() + " archived IDs from " + file.getName());
+        } catch (IOException e) {
+            AppLogger.w(TAG, "Ignoring unreadable archive " + file.getName() + ": " + e.getMessage());
+        }
+        return ids;
+    }
+}
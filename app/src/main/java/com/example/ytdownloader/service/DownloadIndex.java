@@ -0,0 +1,209 @@
+package com.example.ytdownloader.service;
+
+import android.content.Context;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.model.DownloadTask;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Index of finished downloads, keyed by (videoId, formatSpec, type, ext), with the
+ * SHA-256 recorded when the file was finalized.
+ *
+ * Lets createTask complete instantly when the requested format is already on disk.
+ * Lookups run on the caller's thread, so an entry counts as intact only when the file's
+ * size and mtime still match what was recorded (a stat, not a re-hash); anything else is
+ * treated as a miss and simply downloaded again.
+ */
+public class DownloadIndex {
+    private static final String TAG = "DownloadIndex";
+    private static final String FILE_NAME = "download_index.json";
+
+    public static class Entry {
+        final String videoId;
+        final String formatSpec;
+        final DownloadTask.DownloadType type;
+        final String ext;
+        final String path;
+        final long size;
+        final long lastModified;
+        final String sha256;
+
+        Entry(String videoId, String formatSpec, DownloadTask.DownloadType type, String ext,
+              String path, long size, long lastModified, String sha256) {
+            this.videoId = videoId;
+            this.formatSpec = formatSpec;
+            this.type = type;
+            this.ext = ext;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+        public String getSha256() { return sha256; }
+
+        boolean matches(String videoId, String formatSpec, DownloadTask.DownloadType type) {
+            return this.videoId.equals(videoId) && this.formatSpec.equals(formatSpec) && this.type == type;
+        }
+    }
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    // Guarded by this; entries per videoId
+    private final Map<String, List<Entry>> entries = new HashMap<>();
+
+    public DownloadIndex(Context context) {
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    public synchronized void load() {
+        if (!file.exists()) return;
+        try (FileInputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            byte[] buf = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            JSONArray array = new JSONArray(bytes.toString("UTF-8"));
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject json = array.getJSONObject(i);
+                add(new Entry(
+                        json.getString("videoId"),
+                        json.getString("formatSpec"),
+                        DownloadTask.DownloadType.valueOf(json.getString("type")),
+                        json.getString("ext"),
+                        json.getString("path"),
+                        json.getLong("size"),
+                        json.getLong("lastModified"),
+                        json.getString("sha256")));
+            }
+            AppLogger.i(TAG, "Loaded " + array.length() + " completed downloads");
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            AppLogger.w(TAG, "Ignoring unreadable download index: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /** A recorded file for this request whose size and mtime are unchanged, or null. */
+    public synchronized Entry findIntact(String videoId, String formatSpec, DownloadTask.DownloadType type) {
+        List<Entry> list = entries.get(videoId);
+        if (list == null || formatSpec == null) return null;
+        boolean changed = false;
+        Entry found = null;
+        for (int i = list.size() - 1; i >= 0; i--) {
+            Entry entry = list.get(i);
+            if (!entry.matches(videoId, formatSpec, type)) continue;
+            File f = new File(entry.path);
+            if (f.length() == entry.size && f.lastModified() == entry.lastModified) {
+                found = entry;
+                break;
+            }
+            // Deleted or modified outside the app
+            list.remove(i);
+            changed = true;
+        }
+        if (list.isEmpty()) entries.remove(videoId);
+        if (changed) persist();
+        return found;
+    }
+
+    /** Record a completed task's output. Ignored unless it was hashed during finalization. */
+    public synchronized void record(DownloadTask task) {
+        if (task.getSha256() == null || task.getOutputPath() == null || task.getFormatSpec() == null) return;
+        File f = new File(task.getOutputPath());
+        if (!f.isFile()) return;
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        String ext = dot > 0 ? name.substring(dot + 1) : "";
+        add(new Entry(task.getVideoId(), task.getFormatSpec(), task.getDownloadType(), ext,
+                f.getAbsolutePath(), f.length(), f.lastModified(), task.getSha256()));
+        persist();
+    }
+
+    public void close() {
+        writer.shutdown();
+    }
+
+    private void add(Entry entry) {
+        List<Entry> list = entries.get(entry.videoId);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            entries.put(entry.videoId, list);
+        }
+        for (int i = list.size() - 1; i >= 0; i--) {
+            Entry old = list.get(i);
+            if (old.matches(entry.videoId, entry.formatSpec, entry.type) && old.ext.equals(entry.ext)) {
+                list.remove(i);
+            }
+        }
+        list.add(entry);
+    }
+
+    // Snapshot under the lock, write on the background thread via temp file + rename
+    private void persist() {
+        String json;
+        try {
+            JSONArray array = new JSONArray();
+            for (List<Entry> list : entries.values()) {
+                for (Entry e : list) {
+                    array.put(new JSONObject()
+                            .put("videoId", e.videoId)
+                            .put("formatSpec", e.formatSpec)
+                            .put("type", e.type.name())
+                            .put("ext", e.ext)
+                            .put("path", e.path)
+                            .put("size", e.size)
+                            .put("lastModified", e.lastModified)
+                            .put("sha256", e.sha256));
+                }
+            }
+            json = array.toString();
+        } catch (JSONException e) {
+            AppLogger.e(TAG, "Failed to serialize download index", e);
+            return;
+        }
+        if (writer.isShutdown()) return;
+        try {
+            writer.execute(() -> write(json));
+        } catch (RejectedExecutionException e) {
+            // Closed by the service meanwhile
+        }
+    }
+
+    private void write(String json) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            AppLogger.e(TAG, "Failed to write download index", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            AppLogger.w(TAG, "Failed to replace download index");
+            tmp.delete();
+        }
+    }
+}
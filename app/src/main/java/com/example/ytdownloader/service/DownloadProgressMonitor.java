@@ -0,0 +1,167 @@
+package com.example.ytdownloader.service;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.model.DownloadTask;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single background watcher for the on-disk size of every active yt-dlp download.
+ *
+ * An inotify-backed FileObserver per download directory only flips a dirty flag;
+ * one ticker on a background HandlerThread then does at most one listing per
+ * directory per tick for all watched tasks, and attributes file sizes by filename prefix.
+ * No disk I/O happens on the main thread. DownloadService only relies on it until a run's
+ * first --progress-template line, which reports per-stream sizes exactly.
+ */
+public class DownloadProgressMonitor {
+    private static final String TAG = "ProgressMonitor";
+    private static final long TICK_MS = 1000;
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.MODIFY
+            | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE;
+
+    public interface Listener {
+        void onBytesOnDisk(DownloadTask task, long bytesOnDisk);
+    }
+
+    private static class Entry {
+        final DownloadTask task;
+        final File dir;
+        final String filePrefix;
+
+        Entry(DownloadTask task, File dir, String filePrefix) {
+            this.task = task;
+            this.dir = dir;
+            this.filePrefix = filePrefix;
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, Entry> watched = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private HandlerThread thread;
+    private Handler handler;
+    // Guarded by this
+    private final Map<File, FileObserver> observers = new HashMap<>();
+
+    private final Runnable tickRunnable = this::tick;
+
+    public DownloadProgressMonitor(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Start tracking files in dir whose names start with filePrefix. */
+    public synchronized void watch(DownloadTask task, File dir, String filePrefix) {
+        watched.put(task.getId(), new Entry(task, dir, filePrefix));
+        dirty = true;
+        if (thread == null) {
+            thread = new HandlerThread("download-progress");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+            handler.postDelayed(tickRunnable, TICK_MS);
+        }
+        if (!observers.containsKey(dir)) {
+            FileObserver observer = new DirObserver(dir);
+            observer.startWatching();
+            observers.put(dir, observer);
+            AppLogger.d(TAG, "Started watching " + dir.getAbsolutePath());
+        }
+    }
+
+    /** Stop tracking a task. Safe to call more than once. */
+    public synchronized void unwatch(String taskId) {
+        Entry removed = watched.remove(taskId);
+        if (removed == null) return;
+        if (watched.isEmpty()) {
+            stop();
+            return;
+        }
+        for (Entry entry : watched.values()) {
+            if (entry.dir.equals(removed.dir)) return;
+        }
+        FileObserver observer = observers.remove(removed.dir);
+        if (observer != null) {
+            observer.stopWatching();
+        }
+    }
+
+    public synchronized void shutdown() {
+        watched.clear();
+        stop();
+    }
+
+    private void stop() {
+        for (Iterator<FileObserver> it = observers.values().iterator(); it.hasNext(); ) {
+            it.next().stopWatching();
+            it.remove();
+        }
+        if (thread == null) return;
+        handler.removeCallbacksAndMessages(null);
+        thread.quitSafely();
+        handler = null;
+        thread = null;
+        AppLogger.d(TAG, "Stopped watching");
+    }
+
+    // Runs on the monitor thread
+    private void tick() {
+        if (dirty) {
+            dirty = false;
+            scan();
+        }
+        synchronized (this) {
+            // Don't re-arm if this thread was stopped (and possibly replaced) meanwhile
+            if (handler != null && handler.getLooper() == Looper.myLooper()) {
+                handler.postDelayed(tickRunnable, TICK_MS);
+            }
+        }
+    }
+
+    private void scan() {
+        Map<File, String[]> listings = new HashMap<>();
+        for (Entry entry : watched.values()) {
+            DownloadTask task = entry.task;
+            if (task.getStatus() != DownloadTask.Status.DOWNLOADING) continue;
+            String[] names = listings.get(entry.dir);
+            if (names == null) {
+                names = entry.dir.list();
+                if (names == null) continue;
+                listings.put(entry.dir, names);
+            }
+            long totalOnDisk = 0;
+            for (String name : names) {
+                if (name.startsWith(entry.filePrefix)) {
+                    totalOnDisk += new File(entry.dir, name).length();
+                }
+            }
+            // Unwatched while listing: its owner has another progress source now
+            if (watched.get(task.getId()) != entry) continue;
+            if (totalOnDisk > 0 && totalOnDisk != task.getDownloadedBytes()) {
+                listener.onBytesOnDisk(task, totalOnDisk);
+            }
+        }
+    }
+
+    private class DirObserver extends FileObserver {
+        @SuppressWarnings("deprecation")
+        DirObserver(File dir) {
+            super(dir.getAbsolutePath(), EVENTS);
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            // Called on the FileObserver thread for every write; keep it to a flag flip
+            dirty = true;
+        }
+    }
+}
@@ -6,10 +6,13 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.media.MediaScannerConnection;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 
 import androidx.core.app.NotificationCompat;
@@ -17,38 +20,169 @@ import androidx.core.app.NotificationCompat;
 import com.example.ytdownloader.MainActivity;
 import com.example.ytdownloader.R;
 import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.manager.HttpClientManager;
+import com.example.ytdownloader.manager.SettingsManager;
 import com.example.ytdownloader.model.DownloadTask;
-
-import android.os.Handler;
-import android.os.Looper;
+import com.example.ytdownloader.model.VideoInfo;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
-import okhttp3.OkHttpClient;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Request;
+import okhttp3.Response;
 import okhttp3.ResponseBody;
 
 public class DownloadService extends Service {
     private static final String TAG = "DownloadService";
     private static final String CHANNEL_ID = "download_channel";
     private static final int NOTIFICATION_ID = 1;
+    /** Speed limit weight for downloads picked by hand, so bulk playlist entries (1) yield to them. */
+    public static final int MANUAL_WEIGHT = 3;
+    public static final long DEFAULT_PROGRESS_FRAME_MS = 250;
+    // A lone format ID (no merge "+", fallback "/" or selector expression)
+    private static final Pattern SINGLE_FORMAT = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final String BATCH_FIELD = "%(format_id)s";
 
     private final IBinder binder = new LocalBinder();
     private YoutubeService youtubeService;
+    private SettingsManager settingsManager;
+    private TaskJournal journal;
+    private DownloadIndex downloadIndex;
+    private DownloadProgressMonitor progressMonitor;
+    private MediaStoreOutput mediaStoreOutput; // null below Android 11
+    private SegmentedDownloader segmentedDownloader;
+    private BandwidthGovernor bandwidthGovernor;
+    private PlaylistDownloader playlistDownloader;
+    private final ConcurrencyController concurrencyController = new ConcurrencyController();
+    private ThroughputEstimator throughputEstimator;
+    private final AtomicBoolean throughputSampling = new AtomicBoolean();
+    private final StorageLedger storageLedger = new StorageLedger();
+    // Hashes outputs that were moved by rename, after their task has completed
+    private final ExecutorService hasher = Executors.newSingleThreadExecutor();
+    // In-app segmented downloads by task ID; yt-dlp downloads are tracked by processId instead
+    private final ConcurrentHashMap<String, SegmentedDownloader.Job> segmentedJobs = new ConcurrentHashMap<>();
+    // Tasks sharing one multi-format yt-dlp process, by task ID
+    private final ConcurrentHashMap<String, YtDlpBatch> ytDlpBatches = new ConcurrentHashMap<>();
+    // The rate each running yt-dlp task's process was last given, by task ID (guarded by itself)
+    private final Map<String, Long> ytDlpRates = new HashMap<>();
+    // Bandwidth weights from setTaskWeight, reapplied whenever the task's lease is opened
+    private final ConcurrentHashMap<String, Integer> taskWeights = new ConcurrentHashMap<>();
+
+    /** Several formats of one video downloaded by a single yt-dlp process. */
+    private static class YtDlpBatch {
+        final List<DownloadTask> members;
+        // Set when one member is paused/cancelled, which kills the shared process
+        volatile boolean interrupted;
+
+        YtDlpBatch(List<DownloadTask> members) {
+            this.members = members;
+        }
+    }
     private final ConcurrentHashMap<String, DownloadTask> tasks = new ConcurrentHashMap<>();
-    private final List<DownloadListener> listeners = new ArrayList<>();
+    private final ListenerRegistry<DownloadListener> listeners = new ListenerRegistry<>("download-listener");
+
+    // Frame timer for flushing conflated progress
+    private HandlerThread eventThread;
+    private Handler eventHandler;
+
+    // Progress updates are conflated per task and flushed once per frame (guarded by progressLock)
+    private final Object progressLock = new Object();
+    private final LinkedHashMap<String, DownloadTask> pendingProgress = new LinkedHashMap<>();
+    private boolean progressFlushScheduled;
+    private volatile long progressFrameIntervalMs = DEFAULT_PROGRESS_FRAME_MS;
+
+    // Single-flight index: (videoId, formatSpec, type) -> task ID; entries are validated on lookup
+    private final Object flightLock = new Object();
+    private final Map<String, String> inFlight = new HashMap<>();
+
+    // Scheduler: queued task IDs wait in PENDING until a slot is free (guarded by schedulerLock)
+    private final Object schedulerLock = new Object();
+    private final ArrayDeque<String> pendingQueue = new ArrayDeque<>();
+    // Running task ID -> the slot it holds, keyed by task ID; a yt-dlp batch shares its leader's
+    private final Map<String, String> runningSlots = new HashMap<>();
+
+    // Apply "max concurrent" and "speed limit" changes while downloads are running
+    private final SharedPreferences.OnSharedPreferenceChangeListener settingsListener = (prefs, key) -> {
+        if (SettingsManager.KEY_MAX_CONCURRENT.equals(key)) {
+            AppLogger.i(TAG, "Max concurrent changed to " + settingsManager.getMaxConcurrent());
+            startConcurrencySampling();
+            scheduleNext();
+        } else if (SettingsManager.KEY_SPEED_LIMIT.equals(key)) {
+            bandwidthGovernor.setLimit(settingsManager.getSpeedLimitBytesPerSecond());
+            updateYtDlpRates();
+        }
+    };
+
+    // Samples throughput for the adaptive limit while "Auto" concurrency is selected
+    private final Runnable concurrencySampler = new Runnable() {
+        @Override
+        public void run() {
+            if (!settingsManager.isAdaptiveConcurrency()) return;
+            List<DownloadTask> running = runningTasks();
+            int slots;
+            int queued;
+            synchronized (schedulerLock) {
+                slots = slotsInUse();
+                queued = pendingQueue.size();
+            }
+            if (concurrencyController.sample(running, slots, queued)) {
+                scheduleNext();
+            }
+            postEvent(this, ConcurrencyController.SAMPLE_MS);
+        }
+    };
+
+    // Feeds the per-network throughput estimate used by auto quality, while anything runs
+    private final Runnable throughputSampler = new Runnable() {
+        @Override
+        public void run() {
+            List<DownloadTask> running = runningTasks();
+            throughputEstimator.sample(running);
+            if (!running.isEmpty()) {
+                postEvent(this, ConcurrencyController.SAMPLE_MS);
+                return;
+            }
+            throughputSampling.set(false);
+            // A task may have started between the snapshot and clearing the flag
+            if (!runningTasks().isEmpty()) startThroughputSampling();
+        }
+    };
 
     public interface DownloadListener {
         void onTaskAdded(DownloadTask task);
         void onTaskUpdated(DownloadTask task);
         void onTaskCompleted(DownloadTask task);
         void onTaskFailed(DownloadTask task);
+
+        /** Conflated progress for one frame; each task appears at most once per batch. */
+        default void onTasksUpdated(List<DownloadTask> tasks) {
+            for (DownloadTask task : tasks) {
+                onTaskUpdated(task);
+            }
+        }
     }
 
     public class LocalBinder extends Binder {
@@ -60,8 +194,79 @@ public class DownloadService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        eventThread = new HandlerThread("download-events");
+        eventThread.start();
+        eventHandler = new Handler(eventThread.getLooper());
         youtubeService = new YoutubeService(this);
+        settingsManager = new SettingsManager(this);
+        bandwidthGovernor = new BandwidthGovernor(settingsManager.getSpeedLimitBytesPerSecond());
+        throughputEstimator = new ThroughputEstimator(this);
+        settingsManager.registerOnChangeListener(settingsListener);
+        journal = new TaskJournal(this);
+        downloadIndex = new DownloadIndex(this);
+        downloadIndex.load();
+        segmentedDownloader = new SegmentedDownloader(HttpClientManager.get(this));
+        playlistDownloader = new PlaylistDownloader(youtubeService, this, settingsManager,
+                new File(getFilesDir(), "archives"));
+        progressMonitor = new DownloadProgressMonitor((task, bytesOnDisk) -> {
+            task.setDownloadedBytes(bytesOnDisk);
+            if (task.getTotalBytes() > 0) {
+                task.setProgress((int) Math.min(100, bytesOnDisk * 100 / task.getTotalBytes()));
+            }
+            notifyTaskProgress(task);
+        });
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            mediaStoreOutput = new MediaStoreOutput(this);
+        }
         createNotificationChannel();
+        startConcurrencySampling();
+        restoreTasks();
+    }
+
+    @Override
+    public void onDestroy() {
+        settingsManager.unregisterOnChangeListener(settingsListener);
+        progressMonitor.shutdown();
+        hasher.shutdownNow();
+        journal.close();
+        downloadIndex.close();
+        eventThread.quitSafely();
+        listeners.clear();
+        super.onDestroy();
+    }
+
+    /**
+     * Rebuild the task map from the journal after the process was killed, and
+     * re-enqueue unfinished tasks. Their cachePath is kept so yt-dlp's -c resumes
+     * from the existing .part files.
+     */
+    private void restoreTasks() {
+        Map<String, DownloadTask> restored = journal.load();
+        tasks.putAll(restored);
+        synchronized (flightLock) {
+            for (DownloadTask task : restored.values()) {
+                inFlight.put(flightKey(task), task.getId());
+            }
+        }
+
+        List<DownloadTask> unfinished = new ArrayList<>();
+        for (DownloadTask task : restored.values()) {
+            if (task.getStatus() == DownloadTask.Status.PENDING
+                    || task.getStatus() == DownloadTask.Status.DOWNLOADING) {
+                task.setStatus(DownloadTask.Status.PENDING);
+                task.setProcessId(null);
+                unfinished.add(task);
+            }
+        }
+        unfinished.sort(Comparator.comparingLong(DownloadTask::getCreatedAt));
+        for (DownloadTask task : unfinished) {
+            AppLogger.i(TAG, "Re-queueing after restart: " + task.getTitle());
+            if (task.getDownloadType() == DownloadTask.DownloadType.THUMBNAIL) {
+                startDownload(task);
+            } else {
+                enqueue(task, false);
+            }
+        }
     }
 
     @Override
@@ -76,19 +281,92 @@ public class DownloadService extends Service {
     }
 
     public void addListener(DownloadListener listener) {
-        if (!listeners.contains(listener)) {
-            listeners.add(listener);
-        }
+        listeners.add(listener);
     }
 
     public void removeListener(DownloadListener listener) {
         listeners.remove(listener);
     }
 
+    /** Concurrent downloads currently allowed: the fixed setting, or the adaptive limit in Auto mode. */
+    public int getConcurrencyLimit() {
+        return settingsManager.isAdaptiveConcurrency()
+                ? concurrencyController.getLimit()
+                : Math.max(1, settingsManager.getMaxConcurrent());
+    }
+
+    /** How long progress updates are conflated before being delivered as one batch. */
+    public void setProgressFrameInterval(long intervalMs) {
+        progressFrameIntervalMs = Math.max(0, intervalMs);
+    }
+
+    /**
+     * Relative share of the speed limit for a task (default 1). Applies live to running
+     * downloads of either engine, and again whenever the task is resumed.
+     */
+    public void setTaskWeight(String taskId, int weight) {
+        taskWeights.put(taskId, Math.max(1, weight));
+        bandwidthGovernor.setWeight(taskId, weight);
+        updateYtDlpRates();
+    }
+
+    /** Why getConcurrencyLimit() has its current value. */
+    public String getConcurrencyReason() {
+        return settingsManager.isAdaptiveConcurrency()
+                ? concurrencyController.getReason()
+                : "fixed in settings";
+    }
+
     public void refreshYoutubeService() {
         youtubeService.refreshDownloader();
     }
 
+    /**
+     * Queue every video of a playlist or channel at the auto quality budget or the quality
+     * preset from settings, without the format picker. type is VIDEO or AUDIO. Sources downloaded before are
+     * synced incrementally: only videos newer than the last archived one are queued.
+     */
+    public PlaylistDownloader.Session startPlaylistDownload(String playlistUrl, DownloadTask.DownloadType type,
+                                                            PlaylistDownloader.Listener listener) {
+        return playlistDownloader.start(playlistUrl, type, listener);
+    }
+
+    public boolean isPlaylistSynced(String playlistUrl) {
+        return playlistDownloader.isSynced(playlistUrl);
+    }
+
+    /**
+     * The video format auto quality would download right now, or null when auto quality is
+     * off. Without a throughput measured on this network the time budget can't be judged
+     * and the pick goes by the data budget alone; see isAutoQualityGuess.
+     */
+    public VideoInfo.FormatOption pickAutoQuality(List<VideoInfo.FormatOption> videoFormats) {
+        if (!settingsManager.isAutoQuality()) return null;
+        int running;
+        synchronized (schedulerLock) {
+            running = slotsInUse();
+        }
+        // The new download shares the link with whatever else gets a slot alongside it
+        int sharing = Math.max(1, Math.min(running + 1, getConcurrencyLimit()));
+        double rate = throughputEstimator.getEstimate() / sharing;
+        long timeBudget = settingsManager.getAutoQualityTimeBudgetSeconds();
+        long dataBudget = settingsManager.getAutoQualityDataBudgetBytes();
+        VideoInfo.FormatOption format = AutoQuality.select(videoFormats, rate, timeBudget, dataBudget);
+        AppLogger.i(TAG, String.format("Auto quality on %s (%.0f KiB/s, %d sharing, budget %ds/%dMB): %s",
+                throughputEstimator.currentNetwork(), rate / 1024, sharing, timeBudget,
+                dataBudget / (1024 * 1024), format != null ? format.getQuality() : "no pick"));
+        return format;
+    }
+
+    /**
+     * Whether auto quality has to guess: a time budget is set but nothing has been
+     * measured on this network yet, so pickAutoQuality can only go by the data budget.
+     */
+    public boolean isAutoQualityGuess() {
+        return settingsManager.getAutoQualityTimeBudgetSeconds() > 0
+                && throughputEstimator.getEstimate() <= 0;
+    }
+
     public boolean hasActiveDownload(String videoId) {
         for (DownloadTask task : tasks.values()) {
             if (task.getVideoId().equals(videoId)
@@ -100,12 +378,35 @@ public class DownloadService extends Service {
         return false;
     }
 
+    /** Whether a video or audio download of this video has completed and is still listed. */
+    public boolean hasCompletedDownload(String videoId) {
+        for (DownloadTask task : tasks.values()) {
+            if (task.getVideoId().equals(videoId)
+                    && task.getDownloadType() != DownloadTask.DownloadType.THUMBNAIL
+                    && task.getStatus() == DownloadTask.Status.COMPLETED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** All tasks, newest first. */
     public List<DownloadTask> getAllTasks() {
-        return new ArrayList<>(tasks.values());
+        List<DownloadTask> all = new ArrayList<>(tasks.values());
+        all.sort((a, b) -> Long.compare(b.getCreatedAt(), a.getCreatedAt()));
+        return all;
     }
 
     public void removeTask(String taskId) {
-        tasks.remove(taskId);
+        DownloadTask task = tasks.remove(taskId);
+        if (task != null) {
+            synchronized (flightLock) {
+                inFlight.remove(flightKey(task), taskId);
+            }
+            releaseSlot(task);
+            taskWeights.remove(taskId);
+            journal.recordRemoved(taskId);
+        }
     }
 
     public void pauseTask(String taskId) {
@@ -113,12 +414,12 @@ public class DownloadService extends Service {
         if (task == null) return;
         if (task.getStatus() != DownloadTask.Status.DOWNLOADING
                 && task.getStatus() != DownloadTask.Status.PENDING) return;
-        // Kill yt-dlp process
-        if (task.getProcessId() != null) {
-            youtubeService.cancelDownload(task.getProcessId());
-        }
+        // Kill yt-dlp process or stop segments, keeping partial data for resume
+        stopTransfer(task, false);
         task.setStatus(DownloadTask.Status.PAUSED);
+        journal.record(task);
         notifyTaskUpdated(task);
+        releaseSlot(task);
         AppLogger.i(TAG, "Paused: " + task.getTitle());
     }
 
@@ -129,8 +430,10 @@ public class DownloadService extends Service {
                 && task.getStatus() != DownloadTask.Status.FAILED) return;
         task.setStatus(DownloadTask.Status.PENDING);
         task.setErrorMessage(null);
+        journal.record(task);
         notifyTaskUpdated(task);
-        startDownload(task);
+        // Resumed tasks already have partial data on disk, so they jump the queue
+        enqueue(task, true);
         AppLogger.i(TAG, "Resumed: " + task.getTitle());
     }
 
@@ -138,9 +441,7 @@ public class DownloadService extends Service {
         DownloadTask task = tasks.get(taskId);
         if (task == null) return;
         // Kill process if running
-        if (task.getProcessId() != null) {
-            youtubeService.cancelDownload(task.getProcessId());
-        }
+        stopTransfer(task, true);
         // Clean up partial file
         if (task.getCachePath() != null) {
             File partial = new File(task.getCachePath());
@@ -150,22 +451,52 @@ public class DownloadService extends Service {
             if (partFile.exists()) partFile.delete();
         }
         task.setStatus(DownloadTask.Status.CANCELLED);
+        journal.record(task);
         notifyTaskUpdated(task);
+        releaseSlot(task);
         AppLogger.i(TAG, "Cancelled: " + task.getTitle());
     }
 
+    /**
+     * Queue a download, or return the ID of the identical one already in flight
+     * (same videoId, formatSpec and type) so both callers share one process and result.
+     */
     public String createTask(String videoId, String title, String thumbnailUrl,
                              DownloadTask.DownloadType type, String formatSpec) {
+        return createTask(videoId, title, thumbnailUrl, type, formatSpec, 0);
+    }
+
+    /**
+     * @param expectedBytes estimated output size, used to hold or reject the task when
+     *                      storage is short; 0 if unknown
+     */
+    public String createTask(String videoId, String title, String thumbnailUrl,
+                             DownloadTask.DownloadType type, String formatSpec, long expectedBytes) {
         String taskId = UUID.randomUUID().toString();
         DownloadTask task = new DownloadTask(taskId, videoId, title, thumbnailUrl, type);
         task.setFormatSpec(formatSpec);
-        tasks.put(taskId, task);
+        task.setExpectedBytes(expectedBytes);
+        DownloadTask existing = joinOrRegister(task);
+        if (existing != null) {
+            return existing.getId();
+        }
+        journal.record(task);
 
-        for (DownloadListener listener : listeners) {
-            listener.onTaskAdded(task);
+        notifyTaskAdded(task);
+
+        DownloadIndex.Entry done = downloadIndex.findIntact(videoId, formatSpec, type);
+        if (done != null) {
+            // Already finished earlier and untouched since: point at the existing file
+            AppLogger.i(TAG, "Already downloaded, reusing " + done.getPath());
+            task.setOutputPath(done.getPath());
+            task.setSha256(done.getSha256());
+            task.setTotalBytes(done.getSize());
+            task.setDownloadedBytes(done.getSize());
+            completeTask(task);
+            return taskId;
         }
 
-        startDownload(task);
+        enqueue(task, false);
         return taskId;
     }
 
@@ -173,27 +504,286 @@ public class DownloadService extends Service {
         String taskId = UUID.randomUUID().toString();
         DownloadTask task = new DownloadTask(taskId, videoId, title, thumbnailUrl, DownloadTask.DownloadType.THUMBNAIL);
         task.setDownloadUrl(downloadUrl);
-        tasks.put(taskId, task);
-
-        for (DownloadListener listener : listeners) {
-            listener.onTaskAdded(task);
+        DownloadTask existing = joinOrRegister(task);
+        if (existing != null) {
+            return existing.getId();
         }
+        journal.record(task);
+
+        notifyTaskAdded(task);
 
+        // Covers are a single small HTTP fetch, not a yt-dlp process, so they bypass the queue
         startDownload(task);
         return taskId;
     }
 
-    private void startDownload(DownloadTask task) {
+    /**
+     * Atomically either find an unfinished task with the same flight key, or add task
+     * to the task map as the new owner of that key. A paused match is resumed.
+     *
+     * @return the existing task to attach to, or null if task was registered
+     */
+    private DownloadTask joinOrRegister(DownloadTask task) {
+        String key = flightKey(task);
+        DownloadTask existing;
+        synchronized (flightLock) {
+            String existingId = inFlight.get(key);
+            existing = existingId != null ? tasks.get(existingId) : null;
+            if (existing == null || !isUnfinished(existing)) {
+                inFlight.put(key, task.getId());
+                tasks.put(task.getId(), task);
+                return null;
+            }
+        }
+        AppLogger.i(TAG, "Joining in-flight download " + existing.getId() + " for " + key);
+        if (existing.getStatus() == DownloadTask.Status.PAUSED) {
+            resumeTask(existing.getId());
+        }
+        return existing;
+    }
+
+    private static boolean isUnfinished(DownloadTask task) {
+        return task.getStatus() == DownloadTask.Status.PENDING
+                || task.getStatus() == DownloadTask.Status.DOWNLOADING
+                || task.getStatus() == DownloadTask.Status.PAUSED;
+    }
+
+    private static String flightKey(DownloadTask task) {
+        String spec = task.getDownloadType() == DownloadTask.DownloadType.THUMBNAIL
+                ? task.getDownloadUrl() : task.getFormatSpec();
+        return task.getVideoId() + "|" + spec + "|" + task.getDownloadType();
+    }
+
+    private void enqueue(DownloadTask task, boolean front) {
+        synchronized (schedulerLock) {
+            pendingQueue.remove(task.getId());
+            if (front) {
+                pendingQueue.addFirst(task.getId());
+            } else {
+                pendingQueue.addLast(task.getId());
+            }
+        }
+        scheduleNext();
+    }
+
+    /**
+     * Promote queued tasks while fewer than getConcurrencyLimit() are running.
+     * The limit is re-read on every pass so a settings change applies immediately.
+     */
+    private void scheduleNext() {
+        List<List<DownloadTask>> toStart = new ArrayList<>();
+        List<DownloadTask> rejected = new ArrayList<>();
+        synchronized (schedulerLock) {
+            int limit = getConcurrencyLimit();
+            while (slotsInUse() < limit) {
+                DownloadTask next = pollAdmissible(rejected);
+                if (next == null) break;
+                List<DownloadTask> group = collectBatch(next);
+                for (DownloadTask member : group) {
+                    runningSlots.put(member.getId(), next.getId());
+                }
+                toStart.add(group);
+            }
+            if (!toStart.isEmpty()) {
+                startThroughputSampling();
+                AppLogger.d(TAG, "Scheduler: slots=" + slotsInUse() + "/" + limit
+                        + ", tasks=" + runningSlots.size()
+                        + ", queued=" + pendingQueue.size());
+            }
+        }
+        for (DownloadTask task : rejected) {
+            failTask(task, "Not enough storage space");
+        }
+        for (List<DownloadTask> group : toStart) {
+            if (group.size() == 1) {
+                startDownload(group.get(0));
+            } else {
+                startBatch(group);
+            }
+        }
+    }
+
+    /**
+     * Remove and return the first queued task whose storage reservation succeeds. Tasks
+     * that must wait for space stay queued (smaller ones behind them may still start);
+     * tasks that can never fit are moved to rejected. Called under schedulerLock.
+     */
+    private DownloadTask pollAdmissible(List<DownloadTask> rejected) {
+        for (Iterator<String> it = pendingQueue.iterator(); it.hasNext(); ) {
+            DownloadTask next = tasks.get(it.next());
+            if (next == null || next.getStatus() != DownloadTask.Status.PENDING) {
+                it.remove();
+                continue;
+            }
+            StorageLedger.Verdict verdict = reserveStorage(next);
+            if (verdict == StorageLedger.Verdict.WAIT) continue;
+            it.remove();
+            if (verdict == StorageLedger.Verdict.NEVER_FITS) {
+                rejected.add(next);
+                continue;
+            }
+            return next;
+        }
+        return null;
+    }
+
+    /**
+     * Reserve the space a task still needs: its remaining bytes in the work directory
+     * (twice for merges, since streams and the muxed file coexist until the merger
+     * deletes the streams), plus a full copy in Movies when that's another volume.
+     */
+    private StorageLedger.Verdict reserveStorage(DownloadTask task) {
+        long expected = task.getExpectedBytes();
+        if (expected <= 0 || task.getDownloadType() == DownloadTask.DownloadType.THUMBNAIL) {
+            return StorageLedger.Verdict.FITS;
+        }
+        long remaining = Math.max(0, expected - task.getDownloadedBytes());
+        boolean merge = task.getFormatSpec() != null && task.getFormatSpec().contains("+");
+        File workDir;
+        if (task.getCachePath() != null) {
+            workDir = new File(task.getCachePath()).getParentFile();
+        } else if (usesMediaOutput(task)) {
+            workDir = Environment.getExternalStorageDirectory();
+        } else {
+            workDir = getDownloadCacheDir();
+        }
+        File moviesDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES);
+        StorageLedger.Verdict verdict = storageLedger.reserve(task.getId(),
+                workDir, merge ? remaining + expected : remaining, moviesDir, expected);
+        if (verdict == StorageLedger.Verdict.WAIT) {
+            AppLogger.d(TAG, "Holding " + task.getTitle() + " until " + expected + " B are free");
+        }
+        return verdict;
+    }
+
+    /**
+     * Pull queued yt-dlp-bound video and audio tasks for the same video out of the queue to
+     * run alongside leader in one process. They ride in the leader's slot, since the whole
+     * group costs one Python startup and one connection at a time. Called under schedulerLock.
+     *
+     * yt-dlp names every stream after its own format, so two specs that share a format
+     * (137+251 and 136+251, or 137+251 and 251) would fetch it twice; such tasks are left
+     * for a later slot instead of joining.
+     */
+    private List<DownloadTask> collectBatch(DownloadTask leader) {
+        List<DownloadTask> group = new ArrayList<>();
+        group.add(leader);
+        if (!needsYtDlp(leader)) return group;
+        Set<String> formatIds = new HashSet<>();
+        addFormatIds(leader, formatIds);
+        for (Iterator<String> it = pendingQueue.iterator(); it.hasNext(); ) {
+            DownloadTask other = tasks.get(it.next());
+            if (other != null && other.getStatus() == DownloadTask.Status.PENDING
+                    && other.getVideoId().equals(leader.getVideoId())
+                    && needsYtDlp(other)
+                    && !sharesFormat(other, formatIds)
+                    && reserveStorage(other) == StorageLedger.Verdict.FITS) {
+                it.remove();
+                group.add(other);
+                addFormatIds(other, formatIds);
+            }
+        }
+        return group;
+    }
+
+    // The format IDs of a spec made of plain IDs joined by "+"; selector expressions
+    // resolve inside yt-dlp and contribute none
+    private static String[] plainFormatIds(DownloadTask task) {
+        String[] ids = task.getFormatSpec().split("\\+");
+        for (String id : ids) {
+            if (!SINGLE_FORMAT.matcher(id).matches()) return new String[0];
+        }
+        return ids;
+    }
+
+    private static void addFormatIds(DownloadTask task, Set<String> formatIds) {
+        Collections.addAll(formatIds, plainFormatIds(task));
+    }
+
+    private static boolean sharesFormat(DownloadTask task, Set<String> formatIds) {
+        for (String id : plainFormatIds(task)) {
+            if (formatIds.contains(id)) return true;
+        }
+        return false;
+    }
+
+    /** Merges and selector expressions can't go through the in-app segmented engine. */
+    private static boolean needsYtDlp(DownloadTask task) {
+        return task.getDownloadType() != DownloadTask.DownloadType.THUMBNAIL
+                && task.getFormatSpec() != null
+                && !SINGLE_FORMAT.matcher(task.getFormatSpec()).matches();
+    }
+
+    private List<DownloadTask> runningTasks() {
+        List<DownloadTask> running = new ArrayList<>();
+        synchronized (schedulerLock) {
+            for (String id : runningSlots.keySet()) {
+                DownloadTask task = tasks.get(id);
+                if (task != null) running.add(task);
+            }
+        }
+        return running;
+    }
+
+    /** Slots taken by running tasks, each batch counting once. Called under schedulerLock. */
+    private int slotsInUse() {
+        return new HashSet<>(runningSlots.values()).size();
+    }
+
+    /** Post to the event thread, unless onDestroy has already stopped it. */
+    private void postEvent(Runnable event, long delayMs) {
+        if (eventThread.isAlive()) {
+            eventHandler.postDelayed(event, delayMs);
+        }
+    }
+
+    private void startThroughputSampling() {
+        if (throughputSampling.compareAndSet(false, true)) {
+            postEvent(throughputSampler, ConcurrencyController.SAMPLE_MS);
+        }
+    }
+
+    private void startConcurrencySampling() {
+        eventHandler.removeCallbacks(concurrencySampler);
+        if (settingsManager.isAdaptiveConcurrency()) {
+            postEvent(concurrencySampler, ConcurrencyController.SAMPLE_MS);
+        }
+    }
+
+    /** Free the task's slot (idempotent) and promote the next queued task. */
+    private void releaseSlot(DownloadTask task) {
+        progressMonitor.unwatch(task.getId());
+        segmentedJobs.remove(task.getId());
+        releaseLease(task);
+        storageLedger.release(task.getId());
+        boolean released;
+        synchronized (schedulerLock) {
+            released = runningSlots.remove(task.getId()) != null;
+            pendingQueue.remove(task.getId());
+        }
+        if (released) {
+            scheduleNext();
+        }
+    }
+
+    private static String safeFilename(DownloadTask task) {
         String safeTitle = task.getTitle().replaceAll("[^a-zA-Z0-9\\s]", "").trim();
         if (safeTitle.length() > 50) {
             safeTitle = safeTitle.substring(0, 50);
         }
+        return safeTitle;
+    }
+
+    private void startDownload(DownloadTask task) {
+        String safeTitle = safeFilename(task);
         AppLogger.i(TAG, "startDownload: type=" + task.getDownloadType() + ", formatSpec=" + task.getFormatSpec() + ", title=" + safeTitle);
 
         switch (task.getDownloadType()) {
             case VIDEO:
             case AUDIO:
-                downloadWithYtDlp(task, safeTitle);
+                if (!downloadSegmented(task, safeTitle)) {
+                    downloadWithYtDlp(task, safeTitle);
+                }
                 break;
             case THUMBNAIL:
                 downloadThumbnail(task, safeTitle);
@@ -201,71 +791,395 @@ public class DownloadService extends Service {
         }
     }
 
-    private void downloadWithYtDlp(DownloadTask task, String filename) {
-        task.setStatus(DownloadTask.Status.DOWNLOADING);
+    /**
+     * Run a group of formats of one video through a single yt-dlp process, fanning
+     * progress and results back out to each member task.
+     */
+    private void startBatch(List<DownloadTask> group) {
+        DownloadTask leader = group.get(0);
+        String filename = safeFilename(leader);
+        // The process writes into one directory: that of a member with partial files, else a
+        // video's, so it can still be published from the MediaStore staging dir
+        DownloadTask anchor = null;
+        for (DownloadTask task : group) {
+            if (task.getCachePath() != null) {
+                anchor = task;
+                break;
+            }
+            if (anchor == null && task.getDownloadType() == DownloadTask.DownloadType.VIDEO) {
+                anchor = task;
+            }
+        }
+        if (anchor == null) anchor = leader;
+        File workDir = new File(prepareOutput(anchor, filename)).getParentFile();
+
+        List<DownloadTask> members = new ArrayList<>();
+        members.add(anchor);
+        for (DownloadTask task : group) {
+            if (task == anchor) continue;
+            // Fresh members have nothing on disk yet and can write anywhere
+            boolean fresh = task.getCachePath() == null;
+            File dir = new File(prepareOutput(task, filename)).getParentFile();
+            if (fresh || dir.equals(workDir)) {
+                members.add(task);
+            } else {
+                // Its partial files are elsewhere, e.g. the staging dir became unavailable
+                downloadWithYtDlp(task, filename);
+            }
+        }
+        if (members.size() == 1) {
+            downloadWithYtDlp(anchor, filename);
+            return;
+        }
+
+        String template = new File(workDir, filename + "." + BATCH_FIELD + ".%(ext)s").getAbsolutePath();
+        List<String> specs = new ArrayList<>();
+        for (DownloadTask task : members) {
+            task.setCachePath(template);
+            task.setPhase(DownloadTask.Phase.DOWNLOAD);
+            journal.record(task);
+            specs.add(task.getFormatSpec());
+            openLease(task);
+        }
+        AppLogger.i(TAG, "Batching " + members.size() + " formats of " + leader.getVideoId() + ": " + specs);
+
+        // The shared process gets the members' combined share
+        long rateLimit = processRate(members);
+        synchronized (ytDlpRates) {
+            for (DownloadTask task : members) {
+                ytDlpRates.put(task.getId(), rateLimit);
+            }
+        }
+        YtDlpBatch batch = new YtDlpBatch(members);
+        String processId = youtubeService.downloadBatchWithYtDlp(
+                leader.getVideoId(), specs, template, rateLimit,
+                new YoutubeService.BatchCallback() {
+                    @Override
+                    public void onProgress(int index, YtDlpProgress progress) {
+                        DownloadTask task = members.get(index);
+                        applyProgress(task, progress);
+                        notifyTaskProgress(task);
+                        updateYtDlpRate(task);
+                    }
+
+                    @Override
+                    public void onSuccess(String[] filePaths) {
+                        for (int i = 0; i < members.size(); i++) {
+                            DownloadTask task = members.get(i);
+                            ytDlpBatches.remove(task.getId(), batch);
+                            clearYtDlpRate(task);
+                            if (task.getStatus() != DownloadTask.Status.DOWNLOADING) {
+                                discardOutput(task, filePaths[i]);
+                                continue;
+                            }
+                            if (filePaths[i] != null) {
+                                finishDownload(task, filePaths[i]);
+                            } else {
+                                failTask(task, "Output file not found after download");
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onRateLimited() {
+                        concurrencyController.recordRateLimited();
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        for (DownloadTask task : members) {
+                            ytDlpBatches.remove(task.getId(), batch);
+                            clearYtDlpRate(task);
+                            if (task.getStatus() != DownloadTask.Status.DOWNLOADING) continue;
+                            if (batch.interrupted) {
+                                // A sibling was paused/cancelled; the rest go back in the queue
+                                requeue(task);
+                            } else {
+                                failTask(task, error);
+                            }
+                        }
+                    }
+                });
+        for (DownloadTask task : members) {
+            task.setProcessId(processId);
+            ytDlpBatches.put(task.getId(), batch);
+        }
+    }
+
+    /** Put a running task back at the front of the queue, keeping its partial files. */
+    private void requeue(DownloadTask task) {
+        task.setStatus(DownloadTask.Status.PENDING);
+        task.setProcessId(null);
+        journal.record(task);
         notifyTaskUpdated(task);
-        updateNotification("Downloading: " + task.getTitle());
+        progressMonitor.unwatch(task.getId());
+        releaseLease(task);
+        storageLedger.release(task.getId());
+        synchronized (schedulerLock) {
+            runningSlots.remove(task.getId());
+        }
+        enqueue(task, true);
+    }
 
-        // yt-dlp 无法直接写入 Movies（Scoped Storage 限制），先下载到缓存目录
-        File cacheDir = new File(getCacheDir(), "ytdlp_downloads");
-        if (!cacheDir.exists()) {
-            cacheDir.mkdirs();
+    /** Stop whichever engine is running the task. */
+    private void stopTransfer(DownloadTask task, boolean discard) {
+        clearYtDlpRate(task);
+        YtDlpBatch batch = ytDlpBatches.remove(task.getId());
+        if (batch != null) {
+            batch.interrupted = true;
+        }
+        if (task.getProcessId() != null) {
+            youtubeService.cancelDownload(task.getProcessId());
         }
+        SegmentedDownloader.Job job = segmentedJobs.remove(task.getId());
+        if (job != null) {
+            job.cancel(discard);
+        }
+    }
+
+    /** Open the task's bandwidth lease and hand running yt-dlp processes their new share. */
+    private BandwidthGovernor.Lease openLease(DownloadTask task) {
+        BandwidthGovernor.Lease lease = bandwidthGovernor.open(task.getId());
+        Integer weight = taskWeights.get(task.getId());
+        if (weight != null) {
+            bandwidthGovernor.setWeight(task.getId(), weight);
+        }
+        updateYtDlpRates();
+        return lease;
+    }
 
-        String outputPath = new File(cacheDir, filename + ".%(ext)s").getAbsolutePath();
+    /** Give the task's share back to the others, including running yt-dlp processes. */
+    private void releaseLease(DownloadTask task) {
+        bandwidthGovernor.release(task.getId());
+        updateYtDlpRates();
+    }
+
+    /** Push every running yt-dlp process its current share after the governor rebalanced. */
+    private void updateYtDlpRates() {
+        List<String> taskIds;
+        synchronized (ytDlpRates) {
+            taskIds = new ArrayList<>(ytDlpRates.keySet());
+        }
+        for (String taskId : taskIds) {
+            DownloadTask task = tasks.get(taskId);
+            if (task != null) updateYtDlpRate(task);
+        }
+    }
+
+    /**
+     * yt-dlp throttles itself, so its process is told its share in place rather than
+     * restarted. Also called on progress, which catches a rebalance that happened while
+     * the task's process was still being launched.
+     */
+    private void updateYtDlpRate(DownloadTask task) {
+        String processId = task.getProcessId();
+        if (processId == null) return;
+        YtDlpBatch batch = ytDlpBatches.get(task.getId());
+        List<DownloadTask> members = batch != null ? batch.members : Collections.singletonList(task);
+        synchronized (ytDlpRates) {
+            Long applied = ytDlpRates.get(task.getId());
+            long rate = processRate(members);
+            if (applied == null || applied == rate) return;
+            boolean updated = youtubeService.setDownloadRateLimit(processId, rate);
+            for (DownloadTask member : members) {
+                if (!updated) {
+                    ytDlpRates.remove(member.getId());
+                } else if (ytDlpRates.containsKey(member.getId())) {
+                    ytDlpRates.put(member.getId(), rate);
+                }
+            }
+            if (updated) {
+                AppLogger.d(TAG, "yt-dlp rate for " + task.getTitle() + ": " + rate + " B/s");
+            } else if (task.getStatus() == DownloadTask.Status.DOWNLOADING) {
+                AppLogger.w(TAG, "yt-dlp for " + task.getTitle() + " keeps its launch rate of " + applied + " B/s");
+            }
+        }
+    }
+
+    /** Combined share of the tasks one yt-dlp process downloads; 0 (unlimited) if any is. */
+    private long processRate(List<DownloadTask> members) {
+        long rate = 0;
+        for (DownloadTask member : members) {
+            long share = bandwidthGovernor.getRate(member.getId());
+            if (share <= 0) return 0;
+            rate += share;
+        }
+        return rate;
+    }
+
+    private void clearYtDlpRate(DownloadTask task) {
+        synchronized (ytDlpRates) {
+            ytDlpRates.remove(task.getId());
+        }
+    }
+
+    /**
+     * Mark the task running and pick its output template (dir/name.%(ext)s).
+     * The journaled path is kept on resume so both engines find their partial files.
+     */
+    private String prepareOutput(DownloadTask task, String filename) {
+        task.setStatus(DownloadTask.Status.DOWNLOADING);
+        updateNotification("Downloading: " + task.getTitle());
+
+        String outputPath = task.getCachePath();
+        if (outputPath != null && outputPath.contains(BATCH_FIELD)) {
+            // Was part of a batch before; run alone under the plain name
+            outputPath = outputPath.replace("." + BATCH_FIELD, "");
+        }
+        if (outputPath == null) {
+            // Videos stage on the shared volume for MediaStore when possible; otherwise
+            // yt-dlp 无法直接写入 Movies（Scoped Storage 限制），先下载到缓存目录
+            File workDir = mediaStagingDir(task);
+            if (workDir == null) {
+                workDir = getDownloadCacheDir();
+            }
+            outputPath = new File(workDir, filename + ".%(ext)s").getAbsolutePath();
+        }
         task.setCachePath(outputPath);
+        journal.record(task);
+        notifyTaskUpdated(task);
+        return outputPath;
+    }
 
-        // Start file-size progress poller (updates UI every 500ms)
-        Handler pollHandler = new Handler(Looper.getMainLooper());
-        Runnable pollRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (task.getStatus() != DownloadTask.Status.DOWNLOADING) return;
-                // Scan cache dir for matching partial/complete files
-                File[] files = cacheDir.listFiles((dir, name) -> name.startsWith(filename));
-                if (files != null) {
-                    long totalOnDisk = 0;
-                    for (File f : files) totalOnDisk += f.length();
-                    if (totalOnDisk > 0 && totalOnDisk != task.getDownloadedBytes()) {
-                        task.setDownloadedBytes(totalOnDisk);
-                        if (task.getTotalBytes() > 0) {
-                            task.setProgress((int) (totalOnDisk * 100 / task.getTotalBytes()));
-                        }
-                        notifyTaskUpdated(task);
+    /**
+     * Fetch a single direct-URL format in-process over parallel Range requests.
+     * Returns false when the format spec needs yt-dlp (merges, selectors); formats that
+     * turn out not to be directly downloadable, or fail mid-way, fall back to yt-dlp.
+     */
+    private boolean downloadSegmented(DownloadTask task, String filename) {
+        String formatSpec = task.getFormatSpec();
+        if (formatSpec == null || !SINGLE_FORMAT.matcher(formatSpec).matches()) return false;
+
+        String outputPath = prepareOutput(task, filename);
+        // Reading the info JSON is disk I/O; startDownload may be on the main thread
+        new Thread(() -> {
+            SegmentedDownloader.Source source = youtubeService.findDirectSource(task.getVideoId(), formatSpec);
+            if (task.getStatus() != DownloadTask.Status.DOWNLOADING) return;
+            if (source == null) {
+                downloadWithYtDlp(task, filename);
+                return;
+            }
+            File target = new File(outputPath.replace("%(ext)s", source.getExt()));
+            task.setTotalBytes(source.getSize());
+            BandwidthGovernor.Lease lease = openLease(task);
+            SegmentedDownloader.Job job = segmentedDownloader.download(source, target, lease, new SegmentedDownloader.Callback() {
+                @Override
+                public void onProgress(long downloadedBytes, long totalBytes) {
+                    task.setDownloadedBytes(downloadedBytes);
+                    task.setTotalBytes(totalBytes);
+                    task.setProgress((int) (downloadedBytes * 100 / totalBytes));
+                    notifyTaskProgress(task);
+                }
+
+                @Override
+                public void onSuccess(File file) {
+                    segmentedJobs.remove(task.getId());
+                    finishDownload(task, file.getAbsolutePath());
+                }
+
+                @Override
+                public void onRateLimited() {
+                    concurrencyController.recordRateLimited();
+                }
+
+                @Override
+                public void onError(String error) {
+                    segmentedJobs.remove(task.getId());
+                    if (task.getStatus() != DownloadTask.Status.DOWNLOADING) return;
+                    // yt-dlp's -c would misread our preallocated .part, so start it clean
+                    AppLogger.w(TAG, "Segmented download failed (" + error + "), falling back to yt-dlp");
+                    if (error != null && error.contains("HTTP 403")) {
+                        // Signed URLs rejected early; don't hand the same ones to yt-dlp
+                        youtubeService.invalidateVideoInfo(task.getVideoId());
                     }
+                    SegmentedDownloader.discard(target);
+                    downloadWithYtDlp(task, filename);
                 }
-                pollHandler.postDelayed(this, 500);
+            });
+            segmentedJobs.put(task.getId(), job);
+            // Paused or cancelled between the status check and registering the job
+            if (task.getStatus() != DownloadTask.Status.DOWNLOADING && segmentedJobs.remove(task.getId(), job)) {
+                job.cancel(task.getStatus() == DownloadTask.Status.CANCELLED);
             }
-        };
-        pollHandler.postDelayed(pollRunnable, 500);
+        }, "segmented-resolve").start();
+        return true;
+    }
+
+    /** Copy a yt-dlp progress event onto the task; sizes are per stream, as yt-dlp reports them. */
+    private static void applyProgress(DownloadTask task, YtDlpProgress progress) {
+        task.setPhase(progress.getPhase());
+        if (progress.getPhase() != DownloadTask.Phase.DOWNLOAD) {
+            task.setSpeed(-1);
+            task.setEtaSeconds(-1);
+            return;
+        }
+        int percent = progress.getPercent();
+        if (percent >= 0) task.setProgress(percent);
+        if (progress.getDownloadedBytes() >= 0) task.setDownloadedBytes(progress.getDownloadedBytes());
+        if (progress.getTotalBytes() > 0) task.setTotalBytes(progress.getTotalBytes());
+        task.setSpeed(progress.getSpeed());
+        task.setEtaSeconds(progress.getEtaSeconds());
+        task.setFragments(progress.getFragmentIndex(), progress.getFragmentCount());
+    }
+
+    private void downloadWithYtDlp(DownloadTask task, String filename) {
+        String outputPath = prepareOutput(task, filename);
+
+        // Track partial/complete file sizes on the shared background monitor until yt-dlp
+        // reports progress itself; both writing the task's bytes would make them jump
+        progressMonitor.watch(task, new File(outputPath).getParentFile(), filename);
+        AtomicBoolean reporting = new AtomicBoolean();
+        task.setPhase(DownloadTask.Phase.DOWNLOAD);
+
+        // Launched with its current share; updateYtDlpRate adjusts it as the others come and go
+        long rateLimit = openLease(task).getRate();
+        if (rateLimit > 0) {
+            AppLogger.d(TAG, "yt-dlp rate limit for " + task.getTitle() + ": " + rateLimit + " B/s");
+        }
+        synchronized (ytDlpRates) {
+            ytDlpRates.put(task.getId(), rateLimit);
+        }
 
         String processId = youtubeService.downloadWithYtDlp(
                 task.getVideoId(),
                 task.getFormatSpec(),
                 outputPath,
+                rateLimit,
                 new YoutubeService.DownloadCallback() {
                     @Override
-                    public void onProgress(int progress, long downloadedBytes, long totalBytes) {
-                        task.setProgress(progress);
-                        task.setDownloadedBytes(downloadedBytes);
-                        task.setTotalBytes(totalBytes);
-                        notifyTaskUpdated(task);
+                    public void onProgress(YtDlpProgress progress) {
+                        if (reporting.compareAndSet(false, true)) {
+                            progressMonitor.unwatch(task.getId());
+                        }
+                        applyProgress(task, progress);
+                        notifyTaskProgress(task);
+                        updateYtDlpRate(task);
                     }
 
                     @Override
                     public void onSuccess(String filePath) {
-                        pollHandler.removeCallbacksAndMessages(null);
-                        moveToMoviesAndComplete(task, filePath);
+                        progressMonitor.unwatch(task.getId());
+                        clearYtDlpRate(task);
+                        // Paused or cancelled while yt-dlp was starting; the kill never reached it
+                        if (task.getStatus() != DownloadTask.Status.DOWNLOADING) {
+                            discardOutput(task, filePath);
+                            return;
+                        }
+                        finishDownload(task, filePath);
+                    }
+
+                    @Override
+                    public void onRateLimited() {
+                        concurrencyController.recordRateLimited();
                     }
 
                     @Override
                     public void onError(String error) {
-                        pollHandler.removeCallbacksAndMessages(null);
+                        progressMonitor.unwatch(task.getId());
+                        clearYtDlpRate(task);
                         // Only set FAILED if not already paused/cancelled
                         if (task.getStatus() == DownloadTask.Status.DOWNLOADING) {
-                            task.setErrorMessage(error);
-                            task.setStatus(DownloadTask.Status.FAILED);
-                            notifyTaskFailed(task);
+                            failTask(task, error);
                         }
                     }
                 });
@@ -273,6 +1187,81 @@ public class DownloadService extends Service {
         task.setProcessId(processId);
     }
 
+    private void finishDownload(DownloadTask task, String filePath) {
+        // The transfer is over; hand its bandwidth share to the others before finalizing
+        releaseLease(task);
+        // Audio can land in the staging dir too when it was batched with a video
+        if (task.getDownloadType() == DownloadTask.DownloadType.VIDEO && isStaged(filePath)) {
+            commitMediaOutput(task, filePath);
+        } else {
+            moveToMoviesAndComplete(task, filePath);
+        }
+    }
+
+    /** Drop a finished file whose task was paused or cancelled meanwhile. */
+    private void discardOutput(DownloadTask task, String filePath) {
+        if (filePath != null) {
+            File file = new File(filePath);
+            if (file.exists() && !file.delete()) {
+                AppLogger.w(TAG, "Failed to delete discarded output: " + filePath);
+            }
+        }
+        AppLogger.i(TAG, "Discarded output of " + task.getStatus() + " task: " + task.getTitle());
+    }
+
+    /**
+     * The same-volume staging directory yt-dlp should write a video into, or null to use
+     * the cache-then-copy path. The MediaStore entry is only created once the file is done.
+     */
+    private File mediaStagingDir(DownloadTask task) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R || !usesMediaOutput(task)) {
+            return null;
+        }
+        return mediaStoreOutput.getStagingDir();
+    }
+
+    /** Whether yt-dlp wrote this file into the MediaStore staging directory. */
+    private boolean isStaged(String filePath) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return false;
+        File stagingDir = mediaStoreOutput.getStagingDir();
+        return stagingDir != null && stagingDir.equals(new File(filePath).getParentFile());
+    }
+
+    private boolean usesMediaOutput(DownloadTask task) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                && task.getDownloadType() == DownloadTask.DownloadType.VIDEO
+                && settingsManager.isDirectMediaOutput();
+    }
+
+    /** Publish a staged video as a new MediaStore entry, falling back to a copy into Movies. */
+    private void commitMediaOutput(DownloadTask task, String filePath) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            MediaStoreOutput.Result result;
+            try {
+                result = mediaStoreOutput.commit(new File(filePath));
+            } catch (IOException | RuntimeException e) {
+                AppLogger.e(TAG, "MediaStore commit failed for " + filePath, e);
+                result = null;
+            }
+            if (result != null) {
+                AppLogger.i(TAG, "Published to gallery: "
+                        + (result.file != null ? result.file.getAbsolutePath() : result.uri));
+                task.setMediaUri(result.uri.toString());
+                task.setSha256(result.sha256);
+                if (result.file != null) task.setOutputPath(result.file.getAbsolutePath());
+                completeTask(task);
+                // A null file always comes from the copy path, which hashed already
+                if (result.sha256 == null) hashLater(task, result.file);
+                return;
+            }
+            if (!new File(filePath).exists()) {
+                failTask(task, "Failed to publish download");
+                return;
+            }
+        }
+        moveToMoviesAndComplete(task, filePath);
+    }
+
     private void moveToMoviesAndComplete(DownloadTask task, String filePath) {
         File srcFile = new File(filePath);
         if (!srcFile.exists()) {
@@ -300,21 +1289,15 @@ public class DownloadService extends Service {
             }
         }
 
-        boolean moved = srcFile.renameTo(destFile);
-        if (!moved) {
+        boolean renamed = FileFinalizer.move(srcFile, destFile);
+        boolean moved = renamed;
+        if (!renamed) {
+            // Cross-volume: hashed copy to a temp name, fsync, then atomic rename
             try {
-                java.io.InputStream in = new java.io.FileInputStream(srcFile);
-                java.io.OutputStream out = new java.io.FileOutputStream(destFile);
-                byte[] buf = new byte[8192];
-                int len;
-                while ((len = in.read(buf)) > 0) {
-                    out.write(buf, 0, len);
-                }
-                in.close();
-                out.close();
+                task.setSha256(FileFinalizer.copyAtomically(srcFile, destFile));
                 srcFile.delete();
                 moved = true;
-            } catch (Exception e) {
+            } catch (IOException e) {
                 AppLogger.e(TAG, "Failed to copy file to Movies", e);
             }
         }
@@ -329,85 +1312,180 @@ public class DownloadService extends Service {
             task.setOutputPath(filePath);
         }
         completeTask(task);
+        if (renamed) hashLater(task, destFile);
+    }
+
+    /**
+     * Hash a file that was finalized by rename, so nothing was hashed on the way. Runs
+     * after the task has completed rather than holding up completion to re-read the whole
+     * file; the digest and download index entry follow once it's done.
+     */
+    private void hashLater(DownloadTask task, File file) {
+        // A download can finish while the service is being destroyed
+        if (hasher.isShutdown()) return;
+        try {
+            hasher.execute(() -> hash(task, file));
+        } catch (RejectedExecutionException e) {
+            AppLogger.d(TAG, "Not hashing " + file + ": service stopped");
+        }
+    }
+
+    private void hash(DownloadTask task, File file) {
+        String sha256;
+        try {
+            sha256 = FileFinalizer.sha256(file);
+        } catch (IOException e) {
+            AppLogger.w(TAG, "Failed to hash " + file + ": " + e.getMessage());
+            return;
+        }
+        if (hasher.isShutdown() || tasks.get(task.getId()) != task) return;
+        task.setSha256(sha256);
+        journal.record(task);
+        downloadIndex.record(task);
     }
 
     private void downloadThumbnail(DownloadTask task, String safeTitle) {
         task.setStatus(DownloadTask.Status.DOWNLOADING);
+        journal.record(task);
         notifyTaskUpdated(task);
         updateNotification("Downloading cover: " + task.getTitle());
 
-        new Thread(() -> {
-            try {
-                String url = task.getDownloadUrl();
-                OkHttpClient client = new OkHttpClient();
-                Request request = new Request.Builder().url(url).build();
-                okhttp3.Response response = client.newCall(request).execute();
-                ResponseBody body = response.body();
-                if (!response.isSuccessful() || body == null) {
-                    task.setErrorMessage("HTTP error: " + response.code());
-                    task.setStatus(DownloadTask.Status.FAILED);
-                    notifyTaskFailed(task);
-                    return;
-                }
+        // Runs on the shared client's dispatcher pool, reusing pooled connections
+        Request request = new Request.Builder().url(task.getDownloadUrl()).build();
+        HttpClientManager.get(this).newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    ResponseBody body = r.body();
+                    if (!r.isSuccessful() || body == null) {
+                        failTask(task, "HTTP error: " + r.code());
+                        return;
+                    }
 
-                String ext = ".jpg";
-                String contentType = body.contentType() != null ? body.contentType().toString() : "";
-                if (contentType.contains("png")) ext = ".png";
-                else if (contentType.contains("webp")) ext = ".webp";
+                    String ext = ".jpg";
+                    String contentType = body.contentType() != null ? body.contentType().toString() : "";
+                    if (contentType.contains("png")) ext = ".png";
+                    else if (contentType.contains("webp")) ext = ".webp";
 
-                // 先写缓存目录，再通过 moveToMoviesAndComplete 移到 Movies
-                File cacheDir = new File(getCacheDir(), "ytdlp_downloads");
-                if (!cacheDir.exists()) {
-                    cacheDir.mkdirs();
-                }
-                File cacheFile = new File(cacheDir, safeTitle + "_cover" + ext);
-
-                InputStream in = body.byteStream();
-                FileOutputStream out = new FileOutputStream(cacheFile);
-                byte[] buf = new byte[8192];
-                int len;
-                while ((len = in.read(buf)) > 0) {
-                    out.write(buf, 0, len);
+                    // 先写缓存目录，再通过 moveToMoviesAndComplete 移到 Movies
+                    File cacheFile = new File(getDownloadCacheDir(), safeTitle + "_cover" + ext);
+
+                    BandwidthGovernor.Lease lease = openLease(task);
+                    try (InputStream in = body.byteStream();
+                         FileOutputStream out = new FileOutputStream(cacheFile)) {
+                        byte[] buf = new byte[8192];
+                        int len;
+                        while ((len = in.read(buf)) > 0) {
+                            out.write(buf, 0, len);
+                            lease.acquire(len);
+                        }
+                    }
+
+                    AppLogger.i(TAG, "Cover cached: " + cacheFile.getAbsolutePath());
+                    moveToMoviesAndComplete(task, cacheFile.getAbsolutePath());
+                } catch (Exception e) {
+                    AppLogger.e(TAG, "Cover download failed", e);
+                    failTask(task, e.getMessage());
                 }
-                in.close();
-                out.close();
+            }
 
-                AppLogger.i(TAG, "Cover cached: " + cacheFile.getAbsolutePath());
-                moveToMoviesAndComplete(task, cacheFile.getAbsolutePath());
-            } catch (Exception e) {
+            @Override
+            public void onFailure(Call call, IOException e) {
                 AppLogger.e(TAG, "Cover download failed", e);
-                task.setErrorMessage(e.getMessage());
-                task.setStatus(DownloadTask.Status.FAILED);
-                notifyTaskFailed(task);
+                failTask(task, e.getMessage());
             }
-        }).start();
+        });
+    }
+
+    private File getDownloadCacheDir() {
+        File cacheDir = new File(getCacheDir(), "ytdlp_downloads");
+        if (!cacheDir.exists()) {
+            cacheDir.mkdirs();
+        }
+        return cacheDir;
     }
 
     private void completeTask(DownloadTask task) {
         task.setStatus(DownloadTask.Status.COMPLETED);
         task.setProgress(100);
+        journal.record(task);
+        if (task.getDownloadType() != DownloadTask.DownloadType.THUMBNAIL) {
+            downloadIndex.record(task);
+            playlistDownloader.onTaskCompleted(task);
+        }
         notifyTaskCompleted(task);
         updateNotification("Completed: " + task.getTitle());
+        releaseSlot(task);
     }
 
-    private void notifyTaskUpdated(DownloadTask task) {
-        for (DownloadListener listener : listeners) {
-            listener.onTaskUpdated(task);
+    private void failTask(DownloadTask task, String error) {
+        task.setErrorMessage(error);
+        task.setStatus(DownloadTask.Status.FAILED);
+        journal.record(task);
+        notifyTaskFailed(task);
+        releaseSlot(task);
+    }
+
+    private void notifyTaskAdded(DownloadTask task) {
+        listeners.dispatch(listener -> listener.onTaskAdded(task));
+    }
+
+    /**
+     * High-frequency progress (yt-dlp output lines, on-disk size). Merged per task and
+     * delivered at most once per frame interval via onTasksUpdated.
+     */
+    private void notifyTaskProgress(DownloadTask task) {
+        synchronized (progressLock) {
+            pendingProgress.put(task.getId(), task);
+            if (progressFlushScheduled) return;
+            progressFlushScheduled = true;
         }
+        postEvent(this::flushProgress, progressFrameIntervalMs);
     }
 
-    private void notifyTaskCompleted(DownloadTask task) {
-        for (DownloadListener listener : listeners) {
-            listener.onTaskCompleted(task);
+    private void flushProgress() {
+        // Queued under the lock, so a batch can't land behind a later state change that
+        // already dropped it (dispatch only enqueues)
+        synchronized (progressLock) {
+            progressFlushScheduled = false;
+            List<DownloadTask> batch = new ArrayList<>(pendingProgress.size());
+            for (DownloadTask task : pendingProgress.values()) {
+                // A late progress line after the final event would undo it in the UI
+                if (!isTerminal(task.getStatus())) batch.add(task);
+            }
+            pendingProgress.clear();
+            if (batch.isEmpty()) return;
+            listeners.dispatch(listener -> listener.onTasksUpdated(batch));
         }
     }
 
-    private void notifyTaskFailed(DownloadTask task) {
-        for (DownloadListener listener : listeners) {
-            listener.onTaskFailed(task);
+    private static boolean isTerminal(DownloadTask.Status status) {
+        return status == DownloadTask.Status.COMPLETED
+                || status == DownloadTask.Status.FAILED
+                || status == DownloadTask.Status.CANCELLED;
+    }
+
+    // State changes and terminal events skip the frame delay; they carry the latest
+    // progress too, so any update still pending for the task is dropped.
+    private void dispatchNow(DownloadTask task, Consumer<DownloadListener> event) {
+        synchronized (progressLock) {
+            pendingProgress.remove(task.getId());
+            listeners.dispatch(event);
         }
     }
 
+    private void notifyTaskUpdated(DownloadTask task) {
+        dispatchNow(task, listener -> listener.onTaskUpdated(task));
+    }
+
+    private void notifyTaskCompleted(DownloadTask task) {
+        dispatchNow(task, listener -> listener.onTaskCompleted(task));
+    }
+
+    private void notifyTaskFailed(DownloadTask task) {
+        dispatchNow(task, listener -> listener.onTaskFailed(task));
+    }
+
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel channel = new NotificationChannel(
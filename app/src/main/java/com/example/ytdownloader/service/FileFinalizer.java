@@ -0,0 +1,203 @@
+package com.example.ytdownloader.service;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Moves finished downloads into their final location without ever exposing a torn file.
+ *
+ * Same-volume moves are an fsync of the file and a rename. Cross-volume copies go through
+ * FileChannel.transferTo into a temp file next to the destination, hashing the bytes as
+ * they pass, then fsync and an atomic rename, and the SHA-256 digest is returned so callers
+ * can record it for dedup/integrity checks. Either way the destination directory is
+ * fsynced afterwards, since the rename itself is only durable once its directory is.
+ */
+public class FileFinalizer {
+    private static final String TAG = "FileFinalizer";
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Rename src to dest durably. Returns false, leaving src in place, if the rename is
+     * refused (e.g. dest is on another volume).
+     */
+    public static boolean move(File src, File dest) {
+        // yt-dlp never fsyncs its output; the data has to be on disk before the rename is
+        try (RandomAccessFile raf = new RandomAccessFile(src, "rw")) {
+            raf.getFD().sync();
+        } catch (IOException e) {
+            AppLogger.w(TAG, "Failed to fsync " + src + ": " + e.getMessage());
+        }
+        if (!src.renameTo(dest)) return false;
+        syncDirectory(dest.getParentFile());
+        return true;
+    }
+
+    /**
+     * Copy src to dest atomically and return the hex SHA-256 of the copied bytes.
+     * On failure the temp file is removed and dest is left untouched.
+     */
+    public static String copyAtomically(File src, File dest) throws IOException {
+        // Keep the real extension so MediaStore accepts the temp file in shared dirs
+        File tmp = new File(dest.getParentFile(), ".finalizing-" + dest.getName());
+        String hash;
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            hash = copyTo(src, fos.getChannel());
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(dest)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp + " to " + dest);
+        }
+        syncDirectory(dest.getParentFile());
+        return hash;
+    }
+
+    /**
+     * fsync a directory so renames into it survive a crash. Best effort: by the time this
+     * runs the rename has happened, so a failure is only logged.
+     */
+    private static void syncDirectory(File dir) {
+        try {
+            FileDescriptor fd = Os.open(dir.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            // Some filesystems (e.g. sdcardfs) can't fsync a directory at all
+            if (e.errno != OsConstants.EINVAL) {
+                AppLogger.w(TAG, "Failed to fsync " + dir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Copy src into an already-open channel (e.g. a MediaStore file descriptor), fsync it,
+     * and return the hex SHA-256 of the copied bytes. The caller owns and closes out.
+     */
+    public static String copyTo(File src, FileChannel out) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileInputStream fis = new FileInputStream(src)) {
+            FileChannel in = fis.getChannel();
+            // transferTo into a non-file channel loses kernel zero-copy, but lets us
+            // hash in the same pass instead of re-reading a multi-GB file afterwards
+            WritableByteChannel target = new DigestingChannel(out, digest);
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, target);
+            }
+            out.force(true);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Copy src into a provider stream (e.g. ContentResolver.openOutputStream) and return the
+     * hex SHA-256 of the copied bytes. Synced when the stream sits on a file descriptor that
+     * supports it. The caller owns and closes out.
+     */
+    public static String copyTo(File src, OutputStream out) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (FileInputStream fis = new FileInputStream(src)) {
+            int n;
+            while ((n = fis.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                digest.update(buffer, 0, n);
+            }
+        }
+        out.flush();
+        if (out instanceof FileOutputStream) {
+            try {
+                ((FileOutputStream) out).getFD().sync();
+            } catch (SyncFailedException e) {
+                // Pipes from remote providers can't be fsynced; the provider owns durability
+                AppLogger.d(TAG, "Cannot fsync copy of " + src + ": " + e.getMessage());
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /** Hex SHA-256 of a file's contents. */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel channel = fis.getChannel();
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /** Forwards writes to a channel and feeds exactly the written bytes into a digest. */
+    private static class DigestingChannel implements WritableByteChannel {
+        private final WritableByteChannel out;
+        private final MessageDigest digest;
+
+        DigestingChannel(WritableByteChannel out, MessageDigest digest) {
+            this.out = out;
+            this.digest = digest;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer written = src.duplicate();
+            int n = out.write(src);
+            written.limit(written.position() + n);
+            digest.update(written);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return out.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.ytdownloader.service;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.view.Display;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.model.VideoInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Chooses which formats to offer by scoring every candidate with a set of weighted rules.
+ *
+ * YoutubeService hands over all usable formats; one video format per resolution and one
+ * audio format per bitrate survive, each the highest scoring of its group, and video-only
+ * formats are paired with the best scoring audio to merge with. Rules only look at a
+ * FormatOption, so a ranker can be assembled from any mix of them;
+ * {@link #forDevice} builds the default set for this phone.
+ */
+public class FormatRanker {
+    private static final String TAG = "FormatRanker";
+
+    /** Scores one aspect of a format, roughly in [-1, 1]; higher is better. */
+    public interface Rule {
+        double score(VideoInfo.FormatOption format);
+    }
+
+    /** Whether a video codec can be decoded at a given size and frame rate. */
+    public interface Decoders {
+        int NONE = 0;
+        int SOFTWARE = 1;
+        int HARDWARE = 2;
+
+        int support(String vcodec, int width, int height, double fps);
+    }
+
+    private final List<Rule> rules = new ArrayList<>();
+    private final List<Double> weights = new ArrayList<>();
+
+    public FormatRanker add(Rule rule, double weight) {
+        rules.add(rule);
+        weights.add(weight);
+        return this;
+    }
+
+    /** Default rules, with codec support and HDR checked against this device. */
+    public static FormatRanker forDevice(Context context) {
+        boolean hdrDisplay = hasHdrDisplay(context);
+        return new FormatRanker()
+                .add(FormatRanker::codecEfficiency, 1.0)
+                // Decoders are enumerated on first use, which is on an extraction thread
+                .add(f -> decoderSupport(MediaCodecDecoders.get(), f), 2.0)
+                .add(FormatRanker::bitsPerPixel, 1.0)
+                .add(FormatRanker::highFrameRate, 0.3)
+                .add(f -> hdr(hdrDisplay, f), 1.0)
+                .add(FormatRanker::audioBitrate, 1.0)
+                .add(FormatRanker::muxed, 0.3);
+    }
+
+    public double score(VideoInfo.FormatOption format) {
+        double total = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            total += rules.get(i).score(format) * weights.get(i);
+        }
+        return total;
+    }
+
+    /** Best scoring video format per height, sorted by height ascending. */
+    public List<VideoInfo.FormatOption> bestPerHeight(List<VideoInfo.FormatOption> video) {
+        Map<Integer, VideoInfo.FormatOption> best = new TreeMap<>();
+        Map<VideoInfo.FormatOption, Double> scores = new HashMap<>();
+        for (VideoInfo.FormatOption f : video) {
+            double s = score(f);
+            scores.put(f, s);
+            VideoInfo.FormatOption current = best.get(f.getHeight());
+            if (current == null || s > scores.get(current)) {
+                best.put(f.getHeight(), f);
+            }
+        }
+        for (VideoInfo.FormatOption f : best.values()) {
+            AppLogger.d(TAG, String.format("%s -> id=%s %s %.0ffps %s score=%.2f",
+                    f.getQuality(), f.getFormatId(), f.getVcodec(), f.getFps(),
+                    f.isHdr() ? f.getDynamicRange() : "SDR", scores.get(f)));
+        }
+        return new ArrayList<>(best.values());
+    }
+
+    /** Best scoring audio format per bitrate (getTbr, in whole kbps), sorted ascending. */
+    public List<VideoInfo.FormatOption> bestPerBitrate(List<VideoInfo.FormatOption> audio) {
+        Map<Integer, VideoInfo.FormatOption> best = new TreeMap<>();
+        Map<VideoInfo.FormatOption, Double> scores = new HashMap<>();
+        for (VideoInfo.FormatOption f : audio) {
+            double s = score(f);
+            scores.put(f, s);
+            int kbps = (int) f.getTbr();
+            VideoInfo.FormatOption current = best.get(kbps);
+            if (current == null || s > scores.get(current)) {
+                best.put(kbps, f);
+            }
+        }
+        return new ArrayList<>(best.values());
+    }
+
+    /** The highest scoring format, or null for an empty list. */
+    public VideoInfo.FormatOption best(List<VideoInfo.FormatOption> formats) {
+        if (formats.isEmpty()) return null;
+        List<Double> scores = new ArrayList<>(formats.size());
+        for (VideoInfo.FormatOption f : formats) scores.add(score(f));
+        return formats.get(scores.indexOf(Collections.max(scores)));
+    }
+
+    // --- Built-in rules ---
+
+    /** Compression efficiency of the codec: same quality in fewer bytes. */
+    static double codecEfficiency(VideoInfo.FormatOption f) {
+        if (f.hasVideo()) {
+            switch (videoFamily(f.getVcodec())) {
+                case "av01": return 1.0;
+                case "vp9":
+                case "hevc": return 0.8;
+                case "avc": return 0.5;
+                case "vp8": return 0.3;
+                default: return 0;
+            }
+        }
+        String acodec = f.getAcodec();
+        if (acodec.startsWith("opus")) return 1.0;
+        if (acodec.startsWith("mp4a")) return 0.7;
+        return 0.4;
+    }
+
+    /** Hardware decode plays smoothly; software may stutter; unsupported won't play at all. */
+    static double decoderSupport(Decoders decoders, VideoInfo.FormatOption f) {
+        if (!f.hasVideo()) return 0;
+        switch (decoders.support(f.getVcodec(), f.getWidth(), f.getHeight(), f.getFps())) {
+            case Decoders.HARDWARE: return 1.0;
+            case Decoders.SOFTWARE: return 0.2;
+            default: return -1.0;
+        }
+    }
+
+    /** Penalizes bitrate beyond what the frame size needs, i.e. bigger files for the same picture. */
+    static double bitsPerPixel(VideoInfo.FormatOption f) {
+        if (!f.hasVideo() || f.getTbr() <= 0 || f.getHeight() <= 0) return 0;
+        int width = f.getWidth() > 0 ? f.getWidth() : f.getHeight() * 16 / 9;
+        double fps = f.getFps() > 0 ? f.getFps() : 30;
+        double bpp = f.getTbr() * 1000 / (width * (double) f.getHeight() * fps);
+        // ~0.05 is typical for AV1/VP9, ~0.15 for H.264
+        return -Math.min(1.0, bpp / 0.2);
+    }
+
+    static double highFrameRate(VideoInfo.FormatOption f) {
+        return f.hasVideo() && f.getFps() > 30 ? 1.0 : 0;
+    }
+
+    /** HDR only pays off on an HDR screen; elsewhere it's bigger and looks washed out. */
+    static double hdr(boolean hdrDisplay, VideoInfo.FormatOption f) {
+        if (!f.isHdr()) return 0;
+        return hdrDisplay ? 0.5 : -1.0;
+    }
+
+    /** For audio, more bitrate is better up to transparency (~160 kbps for Opus/AAC). */
+    static double audioBitrate(VideoInfo.FormatOption f) {
+        if (f.hasVideo()) return 0;
+        return Math.min(1.0, f.getTbr() / 160.0);
+    }
+
+    /** One stream, no merge step. */
+    static double muxed(VideoInfo.FormatOption f) {
+        return f.hasVideo() && f.hasAudio() ? 1.0 : 0;
+    }
+
+    static String videoFamily(String vcodec) {
+        if (vcodec == null) return "";
+        if (vcodec.startsWith("av01")) return "av01";
+        if (vcodec.startsWith("vp09") || vcodec.startsWith("vp9")) return "vp9";
+        if (vcodec.startsWith("vp8")) return "vp8";
+        if (vcodec.startsWith("avc") || vcodec.startsWith("h264")) return "avc";
+        if (vcodec.startsWith("hev") || vcodec.startsWith("hvc") || vcodec.startsWith("h265")) return "hevc";
+        return "";
+    }
+
+    private static boolean hasHdrDisplay(Context context) {
+        DisplayManager dm = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        if (dm == null) return false;
+        Display display = dm.getDisplay(Display.DEFAULT_DISPLAY);
+        if (display == null) return false;
+        Display.HdrCapabilities caps = display.getHdrCapabilities();
+        return caps != null && caps.getSupportedHdrTypes().length > 0;
+    }
+
+    /** Decoder support as reported by MediaCodecList, queried once per process. */
+    static class MediaCodecDecoders implements Decoders {
+        private static MediaCodecDecoders instance;
+
+        private static class Decoder {
+            final MediaCodecInfo.VideoCapabilities caps;
+            final boolean hardware;
+
+            Decoder(MediaCodecInfo.VideoCapabilities caps, boolean hardware) {
+                this.caps = caps;
+                this.hardware = hardware;
+            }
+        }
+
+        // Keyed by codec family
+        private final Map<String, List<Decoder>> decoders = new HashMap<>();
+
+        static synchronized MediaCodecDecoders get() {
+            if (instance == null) {
+                instance = new MediaCodecDecoders();
+            }
+            return instance;
+        }
+
+        private MediaCodecDecoders() {
+            Map<String, String> families = new HashMap<>();
+            families.put("video/av01", "av01");
+            families.put("video/x-vnd.on2.vp9", "vp9");
+            families.put("video/x-vnd.on2.vp8", "vp8");
+            families.put("video/avc", "avc");
+            families.put("video/hevc", "hevc");
+            for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+                if (info.isEncoder()) continue;
+                for (String type : info.getSupportedTypes()) {
+                    String family = families.get(type.toLowerCase());
+                    if (family == null) continue;
+                    MediaCodecInfo.VideoCapabilities caps;
+                    try {
+                        caps = info.getCapabilitiesForType(type).getVideoCapabilities();
+                    } catch (IllegalArgumentException e) {
+                        continue;
+                    }
+                    if (caps == null) continue;
+                    boolean hardware = isHardware(info);
+                    List<Decoder> list = decoders.get(family);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        decoders.put(family, list);
+                    }
+                    list.add(new Decoder(caps, hardware));
+                    AppLogger.d(TAG, "Decoder " + info.getName() + " for " + family + (hardware ? " (hw)" : " (sw)"));
+                }
+            }
+        }
+
+        private static boolean isHardware(MediaCodecInfo info) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                return info.isHardwareAccelerated();
+            }
+            // Before Q every decoder is OMX; Google's are the software ones
+            String name = info.getName().toLowerCase();
+            return name.startsWith("omx.") && !name.startsWith("omx.google.");
+        }
+
+        @Override
+        public int support(String vcodec, int width, int height, double fps) {
+            List<Decoder> list = decoders.get(videoFamily(vcodec));
+            if (list == null) return NONE;
+            if (width <= 0) width = height * 16 / 9;
+            if (fps <= 0) fps = 30;
+            int result = NONE;
+            for (Decoder d : list) {
+                // Portrait video: try the frame both ways, decoders often only list landscape limits
+                boolean fits = height <= 0
+                        || d.caps.areSizeAndRateSupported(width, height, fps)
+                        || d.caps.areSizeAndRateSupported(height, width, fps);
+                if (!fits) continue;
+                if (d.hardware) return HARDWARE;
+                result = SOFTWARE;
+            }
+            return result;
+        }
+    }
+}
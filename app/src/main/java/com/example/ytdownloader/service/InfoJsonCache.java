@@ -0,0 +1,223 @@
+package com.example.ytdownloader.service;
+
+import android.content.Context;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * yt-dlp info JSON per video, reused with --load-info-json and for direct downloads.
+ *
+ * The stream URLs inside are signed and stop working at their expire= timestamp, so each
+ * entry is only served until EXPIRY_MARGIN_MS before the earliest expiry found in it (or
+ * DEFAULT_TTL_MS after it was saved if it has none); after that callers re-extract. The
+ * expiry is kept in the file name, so the index is rebuilt from one directory listing and
+ * lookups never touch the filesystem. Total size is capped at MAX_BYTES, evicting least
+ * recently used entries first.
+ */
+public class InfoJsonCache {
+    private static final String TAG = "InfoJsonCache";
+    private static final String DIR_NAME = "ytdlp_info";
+    private static final String PENDING_DIR = "pending";
+    private static final String SUFFIX = ".info.json";
+    private static final long MAX_BYTES = 20L * 1024 * 1024;
+    // Leave room for a download to start (and yt-dlp to open its streams) before expiry
+    private static final long EXPIRY_MARGIN_MS = 30 * 60 * 1000L;
+    private static final long DEFAULT_TTL_MS = 5 * 60 * 60 * 1000L;
+    private static final String EXPIRE_PARAM = "expire=";
+
+    private static volatile InfoJsonCache instance;
+
+    public static InfoJsonCache get(Context context) {
+        InfoJsonCache c = instance;
+        if (c == null) {
+            synchronized (InfoJsonCache.class) {
+                c = instance;
+                if (c == null) {
+                    c = new InfoJsonCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+                    instance = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static class Entry {
+        final File file;
+        final long size;
+        final long expiresAt;
+
+        Entry(File file, long size, long expiresAt) {
+            this.file = file;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final File dir;
+    // Guarded by this; access order, so iteration starts at the least recently used
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicInteger pendingSeq = new AtomicInteger();
+    private long totalBytes;
+    private boolean loaded;
+
+    private InfoJsonCache(File dir) {
+        this.dir = dir;
+    }
+
+    /** The cached info JSON for a video if it's still usable, or null. */
+    public synchronized File lookup(String videoId) {
+        load();
+        Entry entry = index.get(videoId);
+        if (entry == null) return null;
+        if (System.currentTimeMillis() + EXPIRY_MARGIN_MS >= entry.expiresAt) {
+            AppLogger.d(TAG, "Info JSON for " + videoId + " is about to expire, dropping it");
+            remove(videoId);
+            return null;
+        }
+        return entry.file;
+    }
+
+    /**
+     * A fresh path for yt-dlp to write a video's info JSON to, outside the index until
+     * {@link #adopt}. Unique per call, so concurrent extractions of one video don't clash.
+     */
+    public synchronized File newPendingFile(String videoId) {
+        // Load first: it clears out the pending directory
+        load();
+        File pendingDir = new File(dir, PENDING_DIR);
+        if (!pendingDir.exists()) pendingDir.mkdirs();
+        return new File(pendingDir, videoId + "." + pendingSeq.incrementAndGet() + SUFFIX);
+    }
+
+    /** The yt-dlp -o template whose info JSON lands at the given pending file. */
+    public static String outputTemplate(File pending) {
+        String path = pending.getPath();
+        return path.substring(0, path.length() - SUFFIX.length()) + ".%(ext)s";
+    }
+
+    /**
+     * Move a fully written pending file into the cache, replacing any older entry for the
+     * video. expiresAt is the earliest URL expiry in ms, or 0 if none was found.
+     */
+    public synchronized void adopt(String videoId, File pending, long expiresAt) {
+        load();
+        if (expiresAt <= 0) {
+            expiresAt = System.currentTimeMillis() + DEFAULT_TTL_MS;
+        }
+        File file = new File(dir, videoId + "." + (expiresAt / 1000) + SUFFIX);
+        long size = pending.length();
+        remove(videoId);
+        if (!pending.renameTo(file)) {
+            AppLogger.w(TAG, "Failed to cache info JSON for " + videoId);
+            pending.delete();
+            return;
+        }
+        index.put(videoId, new Entry(file, size, expiresAt));
+        totalBytes += size;
+        evict();
+    }
+
+    /** Forget a video's entry, e.g. after its URLs were rejected. */
+    public synchronized void invalidate(String videoId) {
+        load();
+        remove(videoId);
+    }
+
+    private void remove(String videoId) {
+        Entry old = index.remove(videoId);
+        if (old != null) {
+            totalBytes -= old.size;
+            old.file.delete();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, Entry> lru = it.next();
+            AppLogger.d(TAG, "Evicting info JSON for " + lru.getKey());
+            totalBytes -= lru.getValue().size;
+            lru.getValue().file.delete();
+            it.remove();
+        }
+    }
+
+    // One directory listing on first use; recency starts out as file mtime order
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long now = System.currentTimeMillis();
+        for (File f : files) {
+            if (f.isDirectory()) {
+                // Pending files left by an extraction that never finished
+                if (PENDING_DIR.equals(f.getName())) {
+                    File[] stale = f.listFiles();
+                    if (stale != null) for (File p : stale) p.delete();
+                }
+                continue;
+            }
+            String name = f.getName();
+            long expiresAt = 0;
+            String videoId = null;
+            if (name.endsWith(SUFFIX)) {
+                String stem = name.substring(0, name.length() - SUFFIX.length());
+                int dot = stem.lastIndexOf('.');
+                if (dot > 0) {
+                    videoId = stem.substring(0, dot);
+                    try {
+                        expiresAt = Long.parseLong(stem.substring(dot + 1)) * 1000;
+                    } catch (NumberFormatException e) {
+                        expiresAt = 0;
+                    }
+                }
+            }
+            // Expired, temp files, and entries from before expiry tracking
+            if (videoId == null || now + EXPIRY_MARGIN_MS >= expiresAt) {
+                f.delete();
+                continue;
+            }
+            Entry entry = new Entry(f, f.length(), expiresAt);
+            Entry replaced = index.put(videoId, entry);
+            if (replaced != null) {
+                totalBytes -= replaced.size;
+                replaced.file.delete();
+            }
+            totalBytes += entry.size;
+        }
+        evict();
+        AppLogger.i(TAG, index.size() + " cached info JSON files, " + totalBytes / 1024 + " KiB");
+    }
+
+    /** Earliest expire= (epoch seconds) in a URL or any URL of a JSON string, in ms; 0 if none. */
+    static long earliestExpiry(String json) {
+        long earliest = 0;
+        int i = 0;
+        while ((i = json.indexOf(EXPIRE_PARAM, i)) >= 0) {
+            int at = i;
+            i += EXPIRE_PARAM.length();
+            // Only a query parameter, not e.g. "xexpire="
+            char before = at > 0 ? json.charAt(at - 1) : ' ';
+            if (before != '?' && before != '&') continue;
+            long value = 0;
+            int j = i;
+            while (j < json.length() && json.charAt(j) >= '0' && json.charAt(j) <= '9' && j - i < 12) {
+                value = value * 10 + (json.charAt(j) - '0');
+                j++;
+            }
+            if (value > 0 && (earliest == 0 || value * 1000 < earliest)) {
+                earliest = value * 1000;
+            }
+        }
+        return earliest;
+    }
+}
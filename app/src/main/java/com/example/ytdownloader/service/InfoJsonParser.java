@@ -0,0 +1,252 @@
+package com.example.ytdownloader.service;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull parser for yt-dlp info JSON files.
+ *
+ * Info JSON runs to several MB for videos with hundreds of formats, almost all of it
+ * signed URLs and fragment lists. Reading it as a DOM held all of that on the heap at
+ * once; here the file is streamed and only the fields VideoInfo needs are materialized,
+ * so memory stays flat however large the file is.
+ */
+class InfoJsonParser {
+
+    /** The per-format fields YoutubeService filters and dedups on. */
+    static class Format {
+        String formatId = "";
+        String ext = "";
+        String protocol = "";
+        String vcodec = "none";
+        String acodec = "none";
+        String formatNote = "";
+        String dynamicRange;
+        long filesize;
+        long filesizeApprox;
+        double tbr;
+        double abr;
+        double fps;
+        int width;
+        int height;
+    }
+
+    static class Info {
+        String title = "Unknown";
+        String uploader = "Unknown";
+        long duration;
+        String thumbnail;
+        final List<String> thumbnailUrls = new ArrayList<>();
+        // Null if the JSON has no "formats" array
+        List<Format> formats;
+        // Earliest expire= among format URLs, in ms; 0 if none
+        long expiresAt;
+    }
+
+    private InfoJsonParser() {
+    }
+
+    static Info parse(File file) throws IOException {
+        Info info = new Info();
+        try (JsonReader reader = open(file)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "title":
+                        info.title = nextString(reader, info.title);
+                        break;
+                    case "uploader":
+                        info.uploader = nextString(reader, info.uploader);
+                        break;
+                    case "duration":
+                        info.duration = (long) nextDouble(reader);
+                        break;
+                    case "thumbnail":
+                        info.thumbnail = nextString(reader, null);
+                        break;
+                    case "thumbnails":
+                        readThumbnails(reader, info.thumbnailUrls);
+                        break;
+                    case "formats":
+                        info.formats = readFormats(reader, info);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed info JSON: " + e.getMessage(), e);
+        }
+        return info;
+    }
+
+    /** The fields of one format needed to download it directly. */
+    static class Direct {
+        String protocol = "";
+        String url = "";
+        String ext = "mp4";
+        long filesize;
+        final Map<String, String> headers = new HashMap<>();
+    }
+
+    /** One format's url, size, protocol and headers, or null if it isn't in the file. */
+    static Direct findFormat(File file, String formatId) throws IOException {
+        try (JsonReader reader = open(file)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"formats".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Direct direct = readDirectIfMatches(reader, formatId);
+                    if (direct != null) return direct;
+                }
+                return null;
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed info JSON: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private static JsonReader open(File file) throws IOException {
+        return new JsonReader(new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 16 * 1024));
+    }
+
+    private static void readThumbnails(JsonReader reader, List<String> out) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("url".equals(reader.nextName())) {
+                    String url = nextString(reader, null);
+                    if (url != null) out.add(url);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    private static List<Format> readFormats(JsonReader reader, Info info) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        List<Format> formats = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Format f = new Format();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "format_id": f.formatId = nextString(reader, ""); break;
+                    case "ext": f.ext = nextString(reader, ""); break;
+                    case "protocol": f.protocol = nextString(reader, ""); break;
+                    case "vcodec": f.vcodec = nextString(reader, "none"); break;
+                    case "acodec": f.acodec = nextString(reader, "none"); break;
+                    case "format_note": f.formatNote = nextString(reader, ""); break;
+                    case "filesize": f.filesize = (long) nextDouble(reader); break;
+                    case "filesize_approx": f.filesizeApprox = (long) nextDouble(reader); break;
+                    case "tbr": f.tbr = nextDouble(reader); break;
+                    case "abr": f.abr = nextDouble(reader); break;
+                    case "dynamic_range": f.dynamicRange = nextString(reader, null); break;
+                    case "fps": f.fps = nextDouble(reader); break;
+                    case "width": f.width = (int) nextDouble(reader); break;
+                    case "height": f.height = (int) nextDouble(reader); break;
+                    case "url": {
+                        // Read only for its expiry; dropped right away
+                        String url = nextString(reader, null);
+                        long expiry = url != null ? InfoJsonCache.earliestExpiry(url) : 0;
+                        if (expiry > 0 && (info.expiresAt == 0 || expiry < info.expiresAt)) {
+                            info.expiresAt = expiry;
+                        }
+                        break;
+                    }
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            formats.add(f);
+        }
+        reader.endArray();
+        return formats;
+    }
+
+    // Reads one format object; returns it only if it's the wanted one. The id isn't
+    // guaranteed to come before url/http_headers, so every format is read in full.
+    private static Direct readDirectIfMatches(JsonReader reader, String formatId) throws IOException {
+        Direct d = new Direct();
+        String id = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "format_id": id = nextString(reader, ""); break;
+                case "protocol": d.protocol = nextString(reader, ""); break;
+                case "url": d.url = nextString(reader, ""); break;
+                case "ext": d.ext = nextString(reader, "mp4"); break;
+                case "filesize": d.filesize = (long) nextDouble(reader); break;
+                case "http_headers":
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        break;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String key = reader.nextName();
+                        String value = nextString(reader, null);
+                        if (value != null) d.headers.put(key, value);
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return formatId.equals(id) ? d : null;
+    }
+
+    private static String nextString(JsonReader reader, String fallback) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return fallback;
+    }
+
+    private static double nextDouble(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NUMBER) {
+            return reader.nextDouble();
+        }
+        reader.skipValue();
+        return 0;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Copy-on-write listener registry with one dispatch thread per listener.
+ *
+ * Registration and removal are safe from any thread while events are being
+ * dispatched. Each listener receives its events in order on its own executor,
+ * so a slow listener only delays itself, never the downloader that notifies it.
+ */
+public class ListenerRegistry<L> {
+    private static final String TAG = "ListenerRegistry";
+
+    private static class Registration<L> {
+        final L listener;
+        final ExecutorService executor;
+
+        Registration(L listener, String name) {
+            this.listener = listener;
+            this.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private final String name;
+    private final CopyOnWriteArrayList<Registration<L>> registrations = new CopyOnWriteArrayList<>();
+
+    public ListenerRegistry(String name) {
+        this.name = name;
+    }
+
+    public synchronized void add(L listener) {
+        for (Registration<L> reg : registrations) {
+            if (reg.listener == listener) return;
+        }
+        registrations.add(new Registration<>(listener,
+                name + "-" + listener.getClass().getSimpleName()));
+    }
+
+    public synchronized void remove(L listener) {
+        for (Registration<L> reg : registrations) {
+            if (reg.listener == listener) {
+                registrations.remove(reg);
+                // Drop events still queued for a listener that is going away
+                reg.executor.shutdownNow();
+                return;
+            }
+        }
+    }
+
+    /** Queue an event for every registered listener. Never blocks the caller. */
+    public void dispatch(Consumer<L> event) {
+        for (Registration<L> reg : registrations) {
+            if (reg.executor.isShutdown()) continue;
+            try {
+                reg.executor.execute(() -> {
+                    try {
+                        event.accept(reg.listener);
+                    } catch (RuntimeException e) {
+                        AppLogger.e(TAG, "Listener threw while handling " + name + " event", e);
+                    }
+                });
+            } catch (RejectedExecutionException ignored) {
+                // Removed concurrently
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (Registration<L> reg : registrations) {
+            reg.executor.shutdownNow();
+        }
+        registrations.clear();
+    }
+}
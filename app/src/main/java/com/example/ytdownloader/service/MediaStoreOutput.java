@@ -0,0 +1,164 @@
+package com.example.ytdownloader.service;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.RequiresApi;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes finished videos straight into a MediaStore entry in Movies/YTDownloader.
+ *
+ * yt-dlp stages its .part/fragment files in a hidden directory on the same shared volume.
+ * Only once a file is finished is an entry inserted for it, with IS_PENDING=1, so failed
+ * or cancelled downloads never leave pending rows behind and every entry gets the name
+ * and extension of the file it holds. Finalizing is normally a rename onto the entry's
+ * file plus a flag flip, with no second multi-GB copy. If the entry has no file path or
+ * the rename is refused, the staged file is copied through the resolver instead.
+ */
+@RequiresApi(api = Build.VERSION_CODES.R)
+public class MediaStoreOutput {
+    private static final String TAG = "MediaStoreOutput";
+    private static final String RELATIVE_PATH = Environment.DIRECTORY_MOVIES + "/YTDownloader";
+    private static final String STAGING_DIR = ".YTDownloader";
+
+    private final ContentResolver resolver;
+
+    public MediaStoreOutput(Context context) {
+        this.resolver = context.getContentResolver();
+    }
+
+    /**
+     * Hidden staging directory on the shared volume. Download/ accepts any file type,
+     * unlike Movies/, so yt-dlp can keep its .part and .ytdl files there.
+     * Returns null if the directory can't be created.
+     */
+    public File getStagingDir() {
+        File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), STAGING_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            AppLogger.w(TAG, "Cannot create staging dir " + dir);
+            return null;
+        }
+        File noMedia = new File(dir, ".nomedia");
+        if (!noMedia.exists()) {
+            try {
+                noMedia.createNewFile();
+            } catch (IOException e) {
+                AppLogger.w(TAG, "Cannot create " + noMedia + ": " + e.getMessage());
+            }
+        }
+        return dir;
+    }
+
+    /** Insert a pending video entry in Movies/YTDownloader. Returns null if MediaStore refuses. */
+    private Uri reserve(String displayName) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Video.Media.DISPLAY_NAME, displayName);
+        values.put(MediaStore.Video.Media.MIME_TYPE, mimeTypeOf(displayName));
+        values.put(MediaStore.Video.Media.RELATIVE_PATH, RELATIVE_PATH);
+        values.put(MediaStore.Video.Media.IS_PENDING, 1);
+        try {
+            Uri uri = resolver.insert(
+                    MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY), values);
+            AppLogger.d(TAG, "Reserved " + displayName + " -> " + uri);
+            return uri;
+        } catch (RuntimeException e) {
+            AppLogger.w(TAG, "MediaStore insert failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Insert an entry named after the staged file, move the file into it and publish it.
+     * The entry is deleted again if any step fails.
+     *
+     * @return the entry, the final file (null if MediaStore reports no path for it), and
+     *         the hex SHA-256 when it was computed during a copy (null after a rename,
+     *         where the caller hashes if it needs to)
+     */
+    public Result commit(File staged) throws IOException {
+        Uri uri = reserve(staged.getName());
+        if (uri == null) {
+            throw new IOException("MediaStore refused " + staged.getName());
+        }
+        try {
+            String path = queryPath(uri);
+            String sha256 = null;
+            if (path == null || !FileFinalizer.move(staged, new File(path))) {
+                AppLogger.d(TAG, (path == null ? "No file path" : "Rename refused")
+                        + ", copying into " + uri);
+                try (OutputStream out = resolver.openOutputStream(uri)) {
+                    if (out == null) {
+                        throw new IOException("Cannot open " + uri + " for writing");
+                    }
+                    sha256 = FileFinalizer.copyTo(staged, out);
+                }
+                staged.delete();
+            }
+
+            ContentValues publish = new ContentValues();
+            publish.put(MediaStore.Video.Media.IS_PENDING, 0);
+            resolver.update(uri, publish, null, null);
+            if (path == null) {
+                // Some providers only fill in the path once the entry is published
+                path = queryPath(uri);
+            }
+            return new Result(uri, path != null ? new File(path) : null, sha256);
+        } catch (IOException | RuntimeException e) {
+            abandon(uri);
+            throw e;
+        }
+    }
+
+    private void abandon(Uri uri) {
+        try {
+            resolver.delete(uri, null, null);
+        } catch (RuntimeException e) {
+            AppLogger.w(TAG, "Failed to delete pending entry " + uri + ": " + e.getMessage());
+        }
+    }
+
+    private String queryPath(Uri uri) {
+        try (Cursor cursor = resolver.query(uri,
+                new String[]{MediaStore.Video.Media.DATA}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        }
+        return null;
+    }
+
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1) : "";
+    }
+
+    private static String mimeTypeOf(String name) {
+        String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extensionOf(name).toLowerCase());
+        return mime != null ? mime : "video/mp4";
+    }
+
+    public static class Result {
+        public final Uri uri;
+        public final File file;
+        public final String sha256;
+
+        Result(Uri uri, File file, String sha256) {
+            this.uri = uri;
+            this.file = file;
+            this.sha256 = sha256;
+        }
+    }
+}
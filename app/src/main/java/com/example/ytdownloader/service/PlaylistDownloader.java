@@ -0,0 +1,261 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.manager.SettingsManager;
+import com.example.ytdownloader.model.DownloadTask;
+import com.example.ytdownloader.model.VideoInfo;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads every video of a playlist or channel with the quality preset from settings.
+ *
+ * The flat listing streams entries in as yt-dlp prints them; each entry is handed to a
+ * small pool that parses up to PARSE_AHEAD videos at once and queues a task as soon as
+ * its format is chosen, so downloads start while the listing is still running.
+ *
+ * Completed videos are recorded in a per-source {@link DownloadArchive}. Once a source has
+ * one, later runs are incremental syncs: the listing stops at the first archived entry and
+ * only the videos before it are queued.
+ */
+public class PlaylistDownloader {
+    private static final String TAG = "PlaylistDownloader";
+    private static final int PARSE_AHEAD = 3;
+
+    public interface Listener {
+        void onEntryQueued(String title, String formatSpec);
+        void onEntryFailed(String videoId, String error);
+        /** Listing finished and every entry was queued or failed (or the session was cancelled). */
+        void onFinished(int queued, int failed);
+    }
+
+    private static class Choice {
+        final String formatSpec;
+        final long expectedBytes;
+
+        Choice(String formatSpec, long expectedBytes) {
+            this.formatSpec = formatSpec;
+            this.expectedBytes = expectedBytes;
+        }
+    }
+
+    private final YoutubeService youtubeService;
+    private final DownloadService downloadService;
+    private final SettingsManager settingsManager;
+    private final File archiveDir;
+    private final Map<String, DownloadArchive> archives = new ConcurrentHashMap<>();
+    // Queued playlist videos -> archives to record them in once their download completes
+    private final Map<String, Set<DownloadArchive>> awaiting = new ConcurrentHashMap<>();
+
+    public PlaylistDownloader(YoutubeService youtubeService, DownloadService downloadService,
+                              SettingsManager settingsManager, File archiveDir) {
+        this.youtubeService = youtubeService;
+        this.downloadService = downloadService;
+        this.settingsManager = settingsManager;
+        this.archiveDir = archiveDir;
+    }
+
+    /** Whether a run for this source would be an incremental sync. */
+    public boolean isSynced(String playlistUrl) {
+        return archiveFor(playlistUrl).exists();
+    }
+
+    /** Start listing playlistUrl; type is VIDEO or AUDIO. The listener runs on worker threads. */
+    public Session start(String playlistUrl, DownloadTask.DownloadType type, Listener listener) {
+        DownloadArchive archive = archiveFor(playlistUrl);
+        boolean incremental = archive.exists();
+        Session session = new Session(type, archive, incremental, listener);
+        AppLogger.i(TAG, (incremental ? "Playlist sync (" + archive.size() + " archived, " : "Playlist download (")
+                + type + "): " + playlistUrl);
+        session.processId = youtubeService.enumeratePlaylist(
+                playlistUrl, incremental ? archive.getFile() : null, session);
+        return session;
+    }
+
+    /** Called by DownloadService for every completed video/audio task. */
+    void onTaskCompleted(DownloadTask task) {
+        Set<DownloadArchive> pending = awaiting.remove(task.getVideoId());
+        if (pending == null) return;
+        for (DownloadArchive archive : pending) {
+            archive.add(task.getVideoId());
+        }
+    }
+
+    private DownloadArchive archiveFor(String playlistUrl) {
+        return archives.computeIfAbsent(DownloadArchive.keyFor(playlistUrl),
+                key -> new DownloadArchive(archiveDir, playlistUrl));
+    }
+
+    public class Session implements YoutubeService.PlaylistCallback {
+        private final DownloadTask.DownloadType type;
+        private final DownloadArchive archive;
+        private final boolean incremental;
+        private final Listener listener;
+        private final ThreadPoolExecutor parsers = new ThreadPoolExecutor(
+                PARSE_AHEAD, PARSE_AHEAD, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "playlist-parse"));
+        private final AtomicInteger listed = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private volatile boolean listingDone;
+        // Reached an archived entry during a sync; later entries are ignored
+        private volatile boolean reachedArchive;
+        private volatile boolean cancelled;
+        private volatile String processId;
+        private boolean finished; // guarded by this
+
+        Session(DownloadTask.DownloadType type, DownloadArchive archive, boolean incremental, Listener listener) {
+            this.type = type;
+            this.archive = archive;
+            this.incremental = incremental;
+            this.listener = listener;
+            parsers.allowCoreThreadTimeOut(true);
+        }
+
+        /** Stop listing and parsing; tasks already queued keep downloading. */
+        public void cancel() {
+            if (cancelled) return;
+            cancelled = true;
+            youtubeService.cancelDownload(processId);
+            parsers.shutdownNow();
+            finish();
+        }
+
+        @Override
+        public void onEntry(String videoId, String title) {
+            if (cancelled || reachedArchive) return;
+            if (archive.contains(videoId)) {
+                if (incremental) {
+                    // yt-dlp should have stopped here itself; don't rely on it
+                    AppLogger.i(TAG, "Reached archived entry " + videoId + ", stopping listing");
+                    reachedArchive = true;
+                    youtubeService.cancelDownload(processId);
+                }
+                return;
+            }
+            listed.incrementAndGet();
+            try {
+                parsers.execute(() -> queueEntry(videoId));
+            } catch (RejectedExecutionException e) {
+                // Cancelled between the check and the submit
+            }
+        }
+
+        @Override
+        public void onComplete(int entryCount) {
+            listingDone = true;
+            if (entryCount == 0) {
+                AppLogger.w(TAG, "Playlist has no videos");
+            }
+            maybeFinish();
+        }
+
+        @Override
+        public void onError(String error) {
+            if (reachedArchive) {
+                // The listing was killed on purpose
+                onComplete(listed.get());
+                return;
+            }
+            AppLogger.e(TAG, "Listing failed after " + listed.get() + " entries: " + error);
+            listingDone = true;
+            maybeFinish();
+        }
+
+        private void queueEntry(String videoId) {
+            if (cancelled) return;
+            try {
+                VideoInfo info = youtubeService.getVideoInfo(videoId);
+                Choice choice = selectFormat(info, type);
+                if (choice == null) {
+                    throw new IllegalStateException("No format matches the quality preset");
+                }
+                if (cancelled) return;
+                awaiting.computeIfAbsent(videoId, k -> ConcurrentHashMap.newKeySet()).add(archive);
+                downloadService.createTask(info.getVideoId(), info.getTitle(), info.getThumbnailUrl(),
+                        type, choice.formatSpec, choice.expectedBytes);
+                queued.incrementAndGet();
+                listener.onEntryQueued(info.getTitle(), choice.formatSpec);
+            } catch (Exception e) {
+                if (cancelled) return;
+                String message = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+                failed.incrementAndGet();
+                listener.onEntryFailed(videoId, message);
+                if (YoutubeService.isBotDetection(message)) {
+                    // Every following entry would hit the same check
+                    AppLogger.w(TAG, "Bot detection triggered, stopping playlist");
+                    cancel();
+                    return;
+                }
+            }
+            maybeFinish();
+        }
+
+        private void maybeFinish() {
+            if (listingDone && queued.get() + failed.get() >= listed.get()) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            synchronized (this) {
+                if (finished) return;
+                finished = true;
+            }
+            parsers.shutdown();
+            AppLogger.i(TAG, "Playlist done: " + queued.get() + " queued, " + failed.get() + " failed"
+                    + (cancelled ? " (cancelled)" : ""));
+            listener.onFinished(queued.get(), failed.get());
+        }
+
+        /** Format picked by auto quality or the settings preset, or null. */
+        private Choice selectFormat(VideoInfo info, DownloadTask.DownloadType type) {
+            if (type == DownloadTask.DownloadType.AUDIO) {
+                VideoInfo.FormatOption format = pick(info.getAudioFormats(), settingsManager.getAudioQuality());
+                return format == null ? null : new Choice(format.getFormatId(), format.getContentLength());
+            }
+            // Auto quality's budget wins over the fixed preset when it can make a pick
+            VideoInfo.FormatOption format = downloadService.pickAutoQuality(info.getVideoFormats());
+            if (format == null) {
+                format = pick(info.getVideoFormats(), settingsManager.getVideoQuality());
+            }
+            // Video-only formats are already paired with audio by FormatRanker
+            return format == null ? null : new Choice(format.getFormatSpec(), format.getDownloadSize());
+        }
+    }
+
+    /**
+     * Highest format whose quality number (1080p, 128kbps) doesn't exceed the preset, or the
+     * lowest one if all exceed it. Formats are sorted ascending; "best" takes the last.
+     */
+    static VideoInfo.FormatOption pick(List<VideoInfo.FormatOption> formats, String preset) {
+        if (formats == null || formats.isEmpty()) return null;
+        int cap = leadingNumber(preset);
+        if (cap <= 0) return formats.get(formats.size() - 1);
+        VideoInfo.FormatOption best = formats.get(0);
+        for (VideoInfo.FormatOption format : formats) {
+            if (leadingNumber(format.getQuality()) <= cap) best = format;
+        }
+        return best;
+    }
+
+    private static int leadingNumber(String s) {
+        if (s == null) return 0;
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') break;
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+}
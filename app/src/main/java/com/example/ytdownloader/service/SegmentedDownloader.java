@@ -0,0 +1,423 @@
+package com.example.ytdownloader.service;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * In-process downloader for a single direct-URL format, fetched as parallel HTTP Range segments.
+ *
+ * googlevideo throttles each connection, so N connections into one preallocated file
+ * finish well ahead of yt-dlp's single stream. Each segment is fetched in bounded chunks
+ * with its own retry/backoff, and segment offsets are checkpointed to a sidecar file so a
+ * paused or killed download resumes where every segment left off.
+ */
+public class SegmentedDownloader {
+    private static final String TAG = "SegmentedDownloader";
+    private static final int MAX_SEGMENTS = 4;
+    private static final long MIN_SEGMENT_SIZE = 2L * 1024 * 1024;
+    // googlevideo throttles unbounded ranges; yt-dlp uses the same 10 MiB http_chunk_size
+    private static final long CHUNK_SIZE = 10L * 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_BASE_MS = 1000;
+    private static final long PROGRESS_STEP = 256 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Not yt-dlp's ".part": a task that fell back to yt-dlp may come back here on resume,
+    // and starting over must not wipe yt-dlp's partial data
+    private static final String PART_SUFFIX = ".seg.part";
+    private static final String STATE_SUFFIX = ".segments";
+
+    /** A direct media URL with its exact size, as listed in yt-dlp's info JSON. */
+    public static class Source {
+        final String url;
+        final long size;
+        final String ext;
+        final Map<String, String> headers;
+
+        public Source(String url, long size, String ext, Map<String, String> headers) {
+            this.url = url;
+            this.size = size;
+            this.ext = ext;
+            this.headers = headers;
+        }
+
+        public long getSize() { return size; }
+        public String getExt() { return ext; }
+    }
+
+    public interface Callback {
+        void onProgress(long downloadedBytes, long totalBytes);
+        void onSuccess(File file);
+        void onError(String error);
+
+        /** A segment got HTTP 429 and will retry after backoff. */
+        default void onRateLimited() {}
+    }
+
+    private final OkHttpClient client;
+
+    public SegmentedDownloader(OkHttpClient client) {
+        this.client = client;
+    }
+
+    /** Start downloading source into target on a background thread, throttled by lease. */
+    public Job download(Source source, File target, BandwidthGovernor.Lease lease, Callback callback) {
+        Job job = new Job(source, target, lease, callback);
+        new Thread(job, "segmented-" + target.getName()).start();
+        return job;
+    }
+
+    /** Delete the partial file and checkpoint left behind for target. */
+    public static void discard(File target) {
+        new File(target.getPath() + PART_SUFFIX).delete();
+        new File(target.getPath() + STATE_SUFFIX).delete();
+    }
+
+    private static class Segment {
+        final long start;
+        final long end; // inclusive
+        volatile long position;
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        boolean isDone() {
+            return position > end;
+        }
+    }
+
+    /** Non-retryable failure, e.g. an expired URL or a server that ignores Range. */
+    private static class FatalDownloadException extends IOException {
+        FatalDownloadException(String message) {
+            super(message);
+        }
+    }
+
+    public class Job implements Runnable {
+        private final Source source;
+        private final File target;
+        private final File partFile;
+        private final File stateFile;
+        private final BandwidthGovernor.Lease lease;
+        private final Callback callback;
+        private final AtomicLong downloaded = new AtomicLong();
+        private final Set<Call> activeCalls = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled; // by the caller
+        private volatile boolean stopped; // by the caller or a failed segment
+        private volatile ExecutorService workers;
+        private List<Segment> segments;
+
+        Job(Source source, File target, BandwidthGovernor.Lease lease, Callback callback) {
+            this.source = source;
+            this.lease = lease;
+            this.target = target;
+            this.partFile = new File(target.getPath() + PART_SUFFIX);
+            this.stateFile = new File(target.getPath() + STATE_SUFFIX);
+            this.callback = callback;
+        }
+
+        /** Stop all segments. Partial data and the checkpoint are kept unless discard is set. */
+        public void cancel(boolean discard) {
+            cancelled = true;
+            stopWorkers();
+            if (discard) {
+                // Workers may still be closing; they never recreate the files once cancelled
+                discard(target);
+            }
+        }
+
+        private void stopWorkers() {
+            stopped = true;
+            for (Call call : activeCalls) {
+                call.cancel();
+            }
+            ExecutorService w = workers;
+            if (w != null) {
+                // Interrupts segments sleeping in retry backoff
+                w.shutdownNow();
+            }
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            segments = loadState();
+            if (segments == null) {
+                segments = plan(source.size);
+                partFile.delete();
+            }
+            long alreadyDone = 0;
+            for (Segment s : segments) {
+                alreadyDone += s.position - s.start;
+            }
+            downloaded.set(alreadyDone);
+            AppLogger.i(TAG, "Downloading " + target.getName() + ": " + source.size + " bytes in "
+                    + segments.size() + " segments" + (alreadyDone > 0 ? ", resuming at " + alreadyDone : ""));
+
+            workers = Executors.newFixedThreadPool(segments.size());
+            if (cancelled) {
+                workers.shutdownNow();
+                return;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+                if (raf.length() != source.size) {
+                    preallocate(raf, source.size);
+                }
+                FileChannel channel = raf.getChannel();
+                saveState(channel);
+
+                List<Future<?>> futures = new ArrayList<>();
+                for (Segment s : segments) {
+                    if (s.isDone()) continue;
+                    try {
+                        futures.add(workers.submit(() -> {
+                            fetchSegment(s, channel);
+                            return null;
+                        }));
+                    } catch (RejectedExecutionException e) {
+                        // Cancelled while starting; already-submitted segments wind down below
+                        break;
+                    }
+                }
+                for (Future<?> f : futures) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        // First failure stops the other segments; their progress is checkpointed
+                        stopWorkers();
+                        Throwable cause = e.getCause();
+                        throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                }
+                if (stopped) return;
+                channel.force(false);
+            } catch (IOException e) {
+                if (!cancelled) {
+                    AppLogger.w(TAG, "Segmented download failed for " + target.getName() + ": " + e.getMessage());
+                    callback.onError(e.getMessage() != null ? e.getMessage() : "Download failed");
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                workers.shutdownNow();
+            }
+
+            stateFile.delete();
+            if (!partFile.renameTo(target)) {
+                callback.onError("Failed to rename " + partFile + " to " + target);
+                return;
+            }
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            AppLogger.i(TAG, "Finished " + target.getName() + " in " + elapsed + "ms ("
+                    + (source.size - alreadyDone) * 1000 / elapsed / 1024 + " KiB/s)");
+            callback.onSuccess(target);
+        }
+
+        private void fetchSegment(Segment s, FileChannel channel) throws IOException, InterruptedException {
+            int attempts = 0;
+            while (!s.isDone() && !stopped) {
+                long chunkEnd = Math.min(s.end, s.position + CHUNK_SIZE - 1);
+                long before = s.position;
+                try {
+                    fetchRange(s, chunkEnd, channel);
+                    attempts = 0;
+                    saveState(channel);
+                } catch (FatalDownloadException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (stopped) return;
+                    // A chunk that made progress before dropping doesn't count against the budget
+                    if (s.position > before) attempts = 0;
+                    if (++attempts >= MAX_ATTEMPTS) throw e;
+                    long backoff = RETRY_BASE_MS << (attempts - 1);
+                    AppLogger.d(TAG, "Segment " + s.start + " retry " + attempts + " in " + backoff
+                            + "ms: " + e.getMessage());
+                    saveState(channel);
+                    Thread.sleep(backoff);
+                }
+            }
+        }
+
+        private void fetchRange(Segment s, long end, FileChannel channel) throws IOException {
+            Request.Builder builder = new Request.Builder()
+                    .url(source.url)
+                    .header("Range", "bytes=" + s.position + "-" + end);
+            for (Map.Entry<String, String> h : source.headers.entrySet()) {
+                builder.header(h.getKey(), h.getValue());
+            }
+            Call call = client.newCall(builder.build());
+            activeCalls.add(call);
+            try (Response response = call.execute()) {
+                int code = response.code();
+                if (code == 403 || code == 404 || code == 410) {
+                    throw new FatalDownloadException("HTTP " + code + " (URL expired or forbidden)");
+                }
+                if (code == 429) {
+                    callback.onRateLimited();
+                }
+                if (code != 206) {
+                    if (code == 200) {
+                        throw new FatalDownloadException("Server ignored Range request");
+                    }
+                    throw new IOException("HTTP " + code);
+                }
+                ResponseBody body = response.body();
+                if (body == null) throw new IOException("Empty response body");
+
+                byte[] buf = new byte[BUFFER_SIZE];
+                long sinceReport = 0;
+                try (InputStream in = body.byteStream()) {
+                    int n;
+                    while (!stopped && s.position <= end && (n = in.read(buf, 0,
+                            (int) Math.min(buf.length, end - s.position + 1))) > 0) {
+                        ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                        long pos = s.position;
+                        while (bb.hasRemaining()) {
+                            pos += channel.write(bb, pos);
+                        }
+                        s.position = pos;
+                        try {
+                            // All segments of all tasks draw from the same governor
+                            lease.acquire(n);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Throttle interrupted");
+                        }
+                        sinceReport += n;
+                        long total = downloaded.addAndGet(n);
+                        if (sinceReport >= PROGRESS_STEP) {
+                            sinceReport = 0;
+                            callback.onProgress(total, source.size);
+                        }
+                    }
+                }
+                if (!stopped && s.position <= end) {
+                    throw new IOException("Connection closed at " + s.position + " of " + end);
+                }
+            } finally {
+                activeCalls.remove(call);
+            }
+        }
+
+        /**
+         * Reserve real blocks for the whole file up front, so segments writing at different
+         * offsets don't fragment it and a full disk fails now rather than mid-download.
+         * Falls back to a sparse setLength where fallocate isn't supported (e.g. FUSE).
+         */
+        private void preallocate(RandomAccessFile raf, long size) throws IOException {
+            try {
+                Os.posix_fallocate(raf.getFD(), 0, size);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.ENOSPC) {
+                    throw new FatalDownloadException("Not enough storage for " + size + " bytes");
+                }
+                AppLogger.d(TAG, "fallocate unsupported (" + e.getMessage() + "), using sparse file");
+            }
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+        }
+
+        private List<Segment> plan(long size) {
+            int count = (int) Math.max(1, Math.min(MAX_SEGMENTS, size / MIN_SEGMENT_SIZE));
+            long segmentSize = (size + count - 1) / count;
+            List<Segment> plan = new ArrayList<>(count);
+            for (long start = 0; start < size; start += segmentSize) {
+                plan.add(new Segment(start, Math.min(size, start + segmentSize) - 1, start));
+            }
+            return plan;
+        }
+
+        /** Restore segment offsets if the checkpoint matches this file; null to start over. */
+        private List<Segment> loadState() {
+            if (!stateFile.exists() || !partFile.exists()) return null;
+            try (FileInputStream in = new FileInputStream(stateFile)) {
+                byte[] data = new byte[(int) stateFile.length()];
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) break;
+                    read += n;
+                }
+                JSONObject json = new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8));
+                if (json.getLong("size") != source.size) return null;
+                JSONArray array = json.getJSONArray("segments");
+                List<Segment> restored = new ArrayList<>();
+                for (int i = 0; i < array.length(); i++) {
+                    JSONArray seg = array.getJSONArray(i);
+                    restored.add(new Segment(seg.getLong(0), seg.getLong(1), seg.getLong(2)));
+                }
+                return restored;
+            } catch (IOException | JSONException e) {
+                AppLogger.w(TAG, "Ignoring unreadable checkpoint " + stateFile + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Write the checkpoint. Offsets are read first and the part file is flushed before the
+         * checkpoint lands, so after a crash it never claims bytes that only reached the page
+         * cache; a segment's position only advances once its bytes are written to the channel.
+         */
+        private synchronized void saveState(FileChannel channel) {
+            if (stopped && !partFile.exists()) return;
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            try {
+                JSONArray array = new JSONArray();
+                for (Segment s : segments) {
+                    array.put(new JSONArray().put(s.start).put(s.end).put(s.position));
+                }
+                String json = new JSONObject().put("size", source.size).put("segments", array).toString();
+                channel.force(false);
+                try (FileOutputStream out = new FileOutputStream(tmp)) {
+                    out.write(json.getBytes(StandardCharsets.UTF_8));
+                    out.getFD().sync();
+                }
+                if (!tmp.renameTo(stateFile)) {
+                    tmp.delete();
+                }
+            } catch (IOException | JSONException e) {
+                AppLogger.w(TAG, "Failed to checkpoint " + target.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.ytdownloader.service;
+
+import android.os.StatFs;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.example.ytdownloader.manager.AppLogger;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory ledger of disk space promised to running downloads.
+ *
+ * Free space reported by StatFs doesn't yet include what running downloads are about to
+ * write, so admission checks subtract every outstanding reservation on the same volume
+ * (identified by st_dev) plus a safety margin. Reservations are dropped when a task leaves
+ * its slot.
+ */
+public class StorageLedger {
+    private static final String TAG = "StorageLedger";
+    // Headroom left for the system, journal and thumbnails
+    private static final long SAFETY_MARGIN = 200L * 1024 * 1024;
+
+    public enum Verdict { FITS, WAIT, NEVER_FITS }
+
+    // Guarded by this: taskId -> (device -> bytes)
+    private final Map<String, Map<Long, Long>> reservations = new HashMap<>();
+
+    /**
+     * Reserve space for a task: workBytes where it downloads and muxes, plus finalBytes
+     * where the result is published, unless that is the same volume (then it's a rename).
+     * WAIT means it would fit once running tasks finish; NEVER_FITS means it doesn't fit
+     * even with nothing else reserved.
+     */
+    public synchronized Verdict reserve(String taskId, File workDir, long workBytes, File finalDir, long finalBytes) {
+        Map<Long, Long> byDevice = new HashMap<>();
+        Map<Long, File> pathByDevice = new HashMap<>();
+        long workDev = deviceOf(workDir);
+        byDevice.put(workDev, workBytes);
+        pathByDevice.put(workDev, workDir);
+        long finalDev = deviceOf(finalDir);
+        if (finalDev != workDev) {
+            byDevice.put(finalDev, finalBytes);
+            pathByDevice.put(finalDev, finalDir);
+        }
+
+        Verdict verdict = Verdict.FITS;
+        for (Map.Entry<Long, Long> e : byDevice.entrySet()) {
+            File path = pathByDevice.get(e.getKey());
+            long available = availableBytes(path) - SAFETY_MARGIN;
+            long reservedByOthers = reservedOn(e.getKey(), taskId);
+            long need = e.getValue();
+            if (need > available) {
+                AppLogger.w(TAG, "Task " + taskId + " needs " + need + " B on " + path
+                        + ", only " + available + " B free");
+                return Verdict.NEVER_FITS;
+            }
+            if (need > available - reservedByOthers) {
+                verdict = Verdict.WAIT;
+            }
+        }
+        if (verdict == Verdict.FITS) {
+            reservations.put(taskId, byDevice);
+        }
+        return verdict;
+    }
+
+    public synchronized void release(String taskId) {
+        reservations.remove(taskId);
+    }
+
+    private long reservedOn(long device, String excludeTaskId) {
+        long total = 0;
+        for (Map.Entry<String, Map<Long, Long>> r : reservations.entrySet()) {
+            if (r.getKey().equals(excludeTaskId)) continue;
+            Long bytes = r.getValue().get(device);
+            if (bytes != null) total += bytes;
+        }
+        return total;
+    }
+
+    private static long availableBytes(File path) {
+        File existing = existingAncestor(path);
+        try {
+            return new StatFs(existing.getAbsolutePath()).getAvailableBytes();
+        } catch (IllegalArgumentException e) {
+            AppLogger.w(TAG, "StatFs failed for " + existing + ": " + e.getMessage());
+            return Long.MAX_VALUE / 2;
+        }
+    }
+
+    private static long deviceOf(File path) {
+        File existing = existingAncestor(path);
+        try {
+            return Os.stat(existing.getAbsolutePath()).st_dev;
+        } catch (ErrnoException e) {
+            // Unknown: treat as its own volume
+            return existing.getAbsolutePath().hashCode();
+        }
+    }
+
+    private static File existingAncestor(File path) {
+        File f = path.getAbsoluteFile();
+        while (f != null && !f.exists()) {
+            f = f.getParentFile();
+        }
+        return f != null ? f : new File("/");
+    }
+}
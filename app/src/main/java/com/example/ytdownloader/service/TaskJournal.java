@@ -0,0 +1,236 @@
+package com.example.ytdownloader.service;
+
+import android.content.Context;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.model.DownloadTask;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Append-only journal of DownloadTask state transitions, so the queue and history
+ * survive process death.
+ *
+ * Each line is a full JSON snapshot of one task; the last line for a task ID wins and
+ * a "removed" line drops it. A torn last line (crash mid-write) is skipped on load.
+ * Writes happen on a single background thread; once the file holds mostly stale
+ * records it is rewritten to a temp file and atomically renamed over the journal.
+ */
+public class TaskJournal {
+    private static final String TAG = "TaskJournal";
+    private static final String FILE_NAME = "task_journal.jsonl";
+    private static final int COMPACT_MIN_RECORDS = 200;
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    // Worker callbacks can still report state after the service has closed the journal
+    private volatile boolean closed;
+
+    // Writer-thread state: latest snapshot line per task, and lines appended since last compaction
+    private final Map<String, String> latest = new LinkedHashMap<>();
+    private int recordCount;
+    private FileOutputStream out;
+
+    public TaskJournal(Context context) {
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Rebuild the task map from disk. Called once on service start, before any writes.
+     */
+    public Map<String, DownloadTask> load() {
+        Map<String, DownloadTask> restored = new LinkedHashMap<>();
+        if (!file.exists()) return restored;
+
+        long start = System.currentTimeMillis();
+        int lines = 0, skipped = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                lines++;
+                try {
+                    JSONObject json = new JSONObject(line);
+                    String id = json.getString("id");
+                    if (json.optBoolean("removed", false)) {
+                        restored.remove(id);
+                        latest.remove(id);
+                    } else {
+                        restored.put(id, fromJson(json));
+                        latest.put(id, line);
+                    }
+                } catch (JSONException | IllegalArgumentException e) {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            AppLogger.e(TAG, "Failed to read task journal", e);
+        }
+        recordCount = lines;
+        AppLogger.i(TAG, "Restored " + restored.size() + " tasks from " + lines + " records ("
+                + skipped + " skipped) in " + (System.currentTimeMillis() - start) + "ms");
+
+        // Start from a compact file so stale records don't pile up across restarts
+        writer.execute(this::compact);
+        return restored;
+    }
+
+    /** Persist the task's current state. The snapshot is taken on the calling thread. */
+    public void record(DownloadTask task) {
+        String id = task.getId();
+        String line;
+        try {
+            line = toJson(task).toString();
+        } catch (JSONException e) {
+            AppLogger.e(TAG, "Failed to serialize task " + id, e);
+            return;
+        }
+        submit(() -> {
+            latest.put(id, line);
+            append(line);
+        });
+    }
+
+    public void recordRemoved(String taskId) {
+        submit(() -> {
+            latest.remove(taskId);
+            try {
+                append(new JSONObject().put("id", taskId).put("removed", true).toString());
+            } catch (JSONException e) {
+                AppLogger.e(TAG, "Failed to serialize removal " + taskId, e);
+            }
+        });
+    }
+
+    /** Flush and stop. Later records are dropped; the tasks are restored as of this point. */
+    public void close() {
+        closed = true;
+        writer.execute(this::closeStream);
+        writer.shutdown();
+    }
+
+    private void submit(Runnable write) {
+        if (closed) return;
+        try {
+            writer.execute(write);
+        } catch (RejectedExecutionException e) {
+            // Closed between the check and the submit
+        }
+    }
+
+    private void append(String line) {
+        try {
+            if (out == null) {
+                out = new FileOutputStream(file, true);
+            }
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+            recordCount++;
+        } catch (IOException e) {
+            AppLogger.e(TAG, "Failed to append to task journal", e);
+            closeStream();
+            return;
+        }
+        if (recordCount > Math.max(COMPACT_MIN_RECORDS, latest.size() * 4)) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        closeStream();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpOut = new FileOutputStream(tmp)) {
+            for (String line : latest.values()) {
+                tmpOut.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            tmpOut.getFD().sync();
+        } catch (IOException e) {
+            AppLogger.e(TAG, "Failed to compact task journal", e);
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            AppLogger.d(TAG, "Compacted journal: " + recordCount + " -> " + latest.size() + " records");
+            recordCount = latest.size();
+        } else {
+            AppLogger.w(TAG, "Failed to replace task journal with compacted copy");
+            tmp.delete();
+        }
+    }
+
+    private void closeStream() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+
+    private static JSONObject toJson(DownloadTask task) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", task.getId());
+        json.put("videoId", task.getVideoId());
+        json.put("title", task.getTitle());
+        json.put("thumbnailUrl", task.getThumbnailUrl());
+        json.put("type", task.getDownloadType().name());
+        json.put("status", task.getStatus().name());
+        json.put("progress", task.getProgress());
+        json.put("formatSpec", task.getFormatSpec());
+        json.put("outputPath", task.getOutputPath());
+        json.put("errorMessage", task.getErrorMessage());
+        json.put("totalBytes", task.getTotalBytes());
+        json.put("downloadedBytes", task.getDownloadedBytes());
+        json.put("downloadUrl", task.getDownloadUrl());
+        json.put("cachePath", task.getCachePath());
+        json.put("createdAt", task.getCreatedAt());
+        json.put("sha256", task.getSha256());
+        json.put("mediaUri", task.getMediaUri());
+        json.put("expectedBytes", task.getExpectedBytes());
+        return json;
+    }
+
+    private static DownloadTask fromJson(JSONObject json) throws JSONException {
+        DownloadTask task = new DownloadTask(
+                json.getString("id"),
+                json.getString("videoId"),
+                json.optString("title", "Unknown"),
+                optString(json, "thumbnailUrl"),
+                DownloadTask.DownloadType.valueOf(json.getString("type")));
+        task.setStatus(DownloadTask.Status.valueOf(json.getString("status")));
+        task.setProgress(json.optInt("progress", 0));
+        task.setFormatSpec(optString(json, "formatSpec"));
+        task.setOutputPath(optString(json, "outputPath"));
+        task.setErrorMessage(optString(json, "errorMessage"));
+        task.setTotalBytes(json.optLong("totalBytes", 0));
+        task.setDownloadedBytes(json.optLong("downloadedBytes", 0));
+        task.setDownloadUrl(optString(json, "downloadUrl"));
+        task.setCachePath(optString(json, "cachePath"));
+        task.setCreatedAt(json.optLong("createdAt", System.currentTimeMillis()));
+        task.setSha256(optString(json, "sha256"));
+        task.setMediaUri(optString(json, "mediaUri"));
+        task.setExpectedBytes(json.optLong("expectedBytes", 0));
+        return task;
+    }
+
+    // JSONObject.optString returns "null" for JSON nulls; map missing/null back to Java null
+    private static String optString(JSONObject json, String key) {
+        return json.isNull(key) ? null : json.optString(key, null);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.ytdownloader.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.SystemClock;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.model.DownloadTask;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rolling estimate of download throughput, kept separately per network type.
+ *
+ * Sampled periodically while downloads run: the bytes all running tasks moved in a
+ * window give one aggregate rate, folded into an exponentially weighted average for
+ * the current network (Wi-Fi, cellular, ...). Windows where nothing moved, e.g. while
+ * ffmpeg merges, are ignored rather than counted as zero. Estimates persist across runs so
+ * the first auto-quality pick after a restart has something to go on.
+ */
+public class ThroughputEstimator {
+    private static final String TAG = "Throughput";
+    private static final String PREF_NAME = "throughput_estimates";
+    // Weight of the newest window; ~10 windows (50 s) dominate the average
+    private static final double ALPHA = 0.2;
+
+    private final ConnectivityManager connectivity;
+    private final SharedPreferences prefs;
+    private final Map<String, Long> lastBytes = new HashMap<>();
+    private long lastSampleAt;
+
+    public ThroughputEstimator(Context context) {
+        this.connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Close the sample window since the previous call. */
+    public synchronized void sample(Collection<DownloadTask> running) {
+        long now = SystemClock.elapsedRealtime();
+        long windowMs = now - lastSampleAt;
+        lastSampleAt = now;
+        long delta = 0;
+        Map<String, Long> seen = new HashMap<>();
+        for (DownloadTask task : running) {
+            long bytes = task.getDownloadedBytes();
+            Long previous = lastBytes.get(task.getId());
+            // First sighting only sets the baseline, so resumed tasks don't count old bytes
+            if (previous != null && bytes > previous) {
+                delta += bytes - previous;
+            }
+            seen.put(task.getId(), bytes);
+        }
+        lastBytes.clear();
+        lastBytes.putAll(seen);
+        if (delta <= 0 || windowMs <= 0) return;
+
+        String network = currentNetwork();
+        double rate = delta * 1000.0 / windowMs;
+        double previous = prefs.getFloat(network, 0);
+        double estimate = previous > 0 ? previous + ALPHA * (rate - previous) : rate;
+        prefs.edit().putFloat(network, (float) estimate).apply();
+        AppLogger.d(TAG, String.format("%s: %.0f KiB/s this window, estimate %.0f KiB/s",
+                network, rate / 1024, estimate / 1024));
+    }
+
+    /** Estimated aggregate throughput on the current network in bytes/s, or 0 if unknown. */
+    public double getEstimate() {
+        return prefs.getFloat(currentNetwork(), 0);
+    }
+
+    /** "wifi", "cellular", "ethernet", "other" or "none". */
+    public String currentNetwork() {
+        if (connectivity == null) return "other";
+        Network network = connectivity.getActiveNetwork();
+        NetworkCapabilities caps = network != null ? connectivity.getNetworkCapabilities(network) : null;
+        if (caps == null) return "none";
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) return "wifi";
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) return "cellular";
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) return "ethernet";
+        return "other";
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.model.VideoInfo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of parsed VideoInfo by videoId, shared by every YoutubeService
+ * instance (MainActivity's and DownloadService's).
+ *
+ * Entries younger than FRESH_MS are served as-is; older ones up to MAX_AGE_MS are returned
+ * marked stale, so the UI can show them at once and re-parse in the background. At most
+ * MAX_ENTRIES are kept, least recently used first out.
+ */
+public class VideoInfoCache {
+    private static final String TAG = "VideoInfoCache";
+    private static final int MAX_ENTRIES = 32;
+    private static final long FRESH_MS = 10 * 60 * 1000L;
+    private static final long MAX_AGE_MS = 6 * 60 * 60 * 1000L;
+
+    private static final VideoInfoCache INSTANCE = new VideoInfoCache();
+
+    public static VideoInfoCache get() {
+        return INSTANCE;
+    }
+
+    public static class Entry {
+        private final VideoInfo info;
+        private final long storedAt;
+
+        Entry(VideoInfo info, long storedAt) {
+            this.info = info;
+            this.storedAt = storedAt;
+        }
+
+        public VideoInfo getInfo() { return info; }
+
+        /** Usable for display, but due for a background refresh. */
+        public boolean isStale() {
+            return System.currentTimeMillis() - storedAt >= FRESH_MS;
+        }
+    }
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private long hits;
+    private long staleHits;
+    private long misses;
+
+    private VideoInfoCache() {
+    }
+
+    /** The cached entry for a video, fresh or stale, or null if absent or too old. */
+    public synchronized Entry lookup(String videoId) {
+        Entry entry = entries.get(videoId);
+        if (entry != null && System.currentTimeMillis() - entry.storedAt >= MAX_AGE_MS) {
+            entries.remove(videoId);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+        } else if (entry.isStale()) {
+            staleHits++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    public synchronized void put(VideoInfo info) {
+        entries.put(info.getVideoId(), new Entry(info, System.currentTimeMillis()));
+    }
+
+    public synchronized void invalidate(String videoId) {
+        entries.remove(videoId);
+    }
+
+    /** Hit/miss counters since process start, for the log. */
+    public synchronized String getStats() {
+        long total = hits + staleHits + misses;
+        return String.format("%d entries, %d hits, %d stale, %d misses (%.0f%% hit rate)",
+                entries.size(), hits, staleHits, misses, total > 0 ? (hits + staleHits) * 100.0 / total : 0.0);
+    }
+
+    void logStats() {
+        AppLogger.d(TAG, getStats());
+    }
+}
@@ -5,17 +5,16 @@ import android.content.Context;
 import com.example.ytdownloader.manager.AppLogger;
 import com.example.ytdownloader.manager.CookieStorage;
 import com.example.ytdownloader.model.VideoInfo;
-import com.yausername.youtubedl_android.YoutubeDL;
 import com.yausername.youtubedl_android.YoutubeDLRequest;
 
-import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,8 +31,33 @@ public class YoutubeService {
             "HTTP Error 429"
     };
 
+    // yt-dlp output lines that name the file a (batched) format is written to
+    private static final Pattern DESTINATION_LINE = Pattern.compile("^\\[download\\] Destination: (.+)$");
+    private static final Pattern MERGER_LINE = Pattern.compile("^\\[Merger\\] Merging formats into \"(.+)\"$");
+    private static final Pattern ALREADY_DOWNLOADED_LINE =
+            Pattern.compile("^\\[download\\] (.+) has already been downloaded$");
+    // What yt-dlp reports when --break-on-existing stops a listing
+    private static final String ARCHIVE_BREAK = "already in the archive";
+    // Watch, embed and shorts links, or a bare 11-character ID
+    private static final Pattern[] VIDEO_ID_PATTERNS = {
+            Pattern.compile("(?:v=|/v/|youtu\\.be/)([a-zA-Z0-9_-]{11})"),
+            Pattern.compile("(?:embed/)([a-zA-Z0-9_-]{11})"),
+            Pattern.compile("(?:shorts/)([a-zA-Z0-9_-]{11})")
+    };
+    private static final Pattern BARE_VIDEO_ID = Pattern.compile("^[a-zA-Z0-9_-]{11}$");
+    // "1080p" in a format note
+    private static final Pattern RESOLUTION_LABEL = Pattern.compile("(\\d+)p");
+    // Playlist links (list=) and channel pages (/@handle, /channel/, /c/, /user/)
+    private static final Pattern PLAYLIST_ID = Pattern.compile("[?&]list=([A-Za-z0-9_-]+)");
+    private static final Pattern CHANNEL_PATH =
+            Pattern.compile("youtube\\.com/(@[^/?#]+|channel/[A-Za-z0-9_-]+|c/[^/?#]+|user/[^/?#]+)");
+
     private final Context context;
     private final CookieStorage cookieStorage;
+    private final YtDlpWorkerPool workers;
+    private final InfoJsonCache infoCache;
+    private final FormatRanker formatRanker;
+    private final VideoInfoCache videoInfoCache = VideoInfoCache.get();
 
     public interface ParseCallback {
         void onSuccess(VideoInfo videoInfo);
@@ -41,15 +65,39 @@ public class YoutubeService {
         void onError(String error);
     }
 
+    /** Per-output callbacks for a multi-format run; index is the position in the format list. */
+    public interface BatchCallback {
+        /** progress is reused for the next line; copy what's needed before returning. */
+        void onProgress(int index, YtDlpProgress progress);
+        /** filePaths[i] is the finished file for format i, or null if yt-dlp produced none. */
+        void onSuccess(String[] filePaths);
+        void onError(String error);
+        default void onRateLimited() {}
+    }
+
     public interface DownloadCallback {
-        void onProgress(int progress, long downloadedBytes, long totalBytes);
+        /** progress is reused for the next line; copy what's needed before returning. */
+        void onProgress(YtDlpProgress progress);
         void onSuccess(String filePath);
         void onError(String error);
+
+        /** The server answered HTTP 429; yt-dlp may still be retrying. */
+        default void onRateLimited() {}
+    }
+
+    /** Entries of a --flat-playlist listing, delivered as yt-dlp prints them. */
+    public interface PlaylistCallback {
+        void onEntry(String videoId, String title);
+        void onComplete(int entryCount);
+        void onError(String error);
     }
 
     public YoutubeService(Context context) {
         this.context = context;
         this.cookieStorage = new CookieStorage(context);
+        this.workers = YtDlpWorkerPool.get(context);
+        this.infoCache = InfoJsonCache.get(context);
+        this.formatRanker = FormatRanker.forDevice(context);
     }
 
     public void refreshDownloader() {
@@ -77,287 +125,338 @@ public class YoutubeService {
             return null;
         }
 
-        String[] patterns = {
-                "(?:v=|/v/|youtu\\.be/)([a-zA-Z0-9_-]{11})",
-                "(?:embed/)([a-zA-Z0-9_-]{11})",
-                "(?:shorts/)([a-zA-Z0-9_-]{11})"
-        };
-
-        for (String patternStr : patterns) {
-            Pattern pattern = Pattern.compile(patternStr);
+        for (Pattern pattern : VIDEO_ID_PATTERNS) {
             Matcher matcher = pattern.matcher(url);
             if (matcher.find()) {
                 return matcher.group(1);
             }
         }
 
-        if (url.matches("^[a-zA-Z0-9_-]{11}$")) {
+        if (BARE_VIDEO_ID.matcher(url).matches()) {
             return url;
         }
 
         return null;
     }
 
-    public void parseVideo(String videoId, ParseCallback callback) {
+    /**
+     * Canonical URL of the playlist or channel a link points to, or null if it has none.
+     * Watch links that also carry list= still count; callers decide which one wins.
+     */
+    public String extractPlaylistUrl(String url) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        Matcher m = PLAYLIST_ID.matcher(url);
+        if (m.find()) {
+            return "https://www.youtube.com/playlist?list=" + m.group(1);
+        }
+        m = CHANNEL_PATH.matcher(url);
+        if (m.find()) {
+            // Channel root lists its tabs rather than videos
+            return "https://www.youtube.com/" + m.group(1) + "/videos";
+        }
+        return null;
+    }
+
+    /**
+     * List a playlist or channel with --flat-playlist (one page request per ~100 entries,
+     * no per-video extraction). --lazy-playlist makes yt-dlp print each page's entries as
+     * soon as it's fetched, so callers can start work before the listing finishes.
+     * With a non-empty archive, yt-dlp stops at the first entry already recorded in it
+     * (--break-on-existing), which for newest-first channel listings is everything new.
+     * Returns the process ID for cancellation.
+     */
+    public String enumeratePlaylist(String playlistUrl, File archiveFile, PlaylistCallback callback) {
+        String processId = UUID.randomUUID().toString();
         new Thread(() -> {
+            final int[] count = {0};
             try {
-                AppLogger.i(TAG, "Parsing video: " + videoId);
-                String videoUrl = "https://www.youtube.com/watch?v=" + videoId;
-
-                YoutubeDLRequest request = new YoutubeDLRequest(videoUrl);
+                YoutubeDLRequest request = new YoutubeDLRequest(playlistUrl);
+                request.addOption("--flat-playlist");
+                request.addOption("--lazy-playlist");
                 request.addOption("--dump-json");
-                request.addOption("--no-download");
-                request.addOption("--no-playlist");
                 request.addOption("--no-check-certificates");
                 request.addOption("--no-warnings");
                 request.addOption("--socket-timeout", "10");
-
+                if (archiveFile != null && archiveFile.length() > 0) {
+                    request.addOption("--download-archive", archiveFile.getAbsolutePath());
+                    request.addOption("--break-on-existing");
+                }
                 String cookieFile = getCookieFilePath();
                 if (cookieFile != null) {
                     request.addOption("--cookies", cookieFile);
-                    AppLogger.d(TAG, "Using cookies file");
                 }
-
-                AppLogger.d(TAG, "yt-dlp command: " + request.buildCommand().toString());
+                AppLogger.i(TAG, "yt-dlp playlist command: " + request.buildCommand().toString());
 
                 com.yausername.youtubedl_android.YoutubeDLResponse response =
-                        YoutubeDL.getInstance().execute(request);
-
-                String jsonOutput = response.getOut();
-                String errOutput = response.getErr();
-                AppLogger.d(TAG, "yt-dlp stdout length: " + (jsonOutput != null ? jsonOutput.length() : 0));
-                if (errOutput != null && !errOutput.isEmpty()) {
-                    // stderr 可能包含警告、player client 回退等重要信息
-                    AppLogger.w(TAG, "yt-dlp stderr:\n" + errOutput);
-                }
+                    workers.execute(request, processId, (progress, etaInSeconds, line) -> {
+                        if (line == null || !line.startsWith("{")) return;
+                        try {
+                            JSONObject entry = new JSONObject(line);
+                            String id = entry.optString("id", "");
+                            // Channel listings can nest tabs/playlists (longer IDs); only videos are queued
+                            if (id.length() == 11) {
+                                count[0]++;
+                                callback.onEntry(id, entry.optString("title", id));
+                            }
+                        } catch (JSONException e) {
+                            AppLogger.w(TAG, "Skipping unreadable playlist entry: " + e.getMessage());
+                        }
+                    });
 
-                if (jsonOutput == null || jsonOutput.isEmpty()) {
-                    callback.onError("No response from yt-dlp");
+                String err = response.getErr();
+                if (err != null && !err.isEmpty()) {
+                    AppLogger.w(TAG, "yt-dlp stderr:\n" + err);
+                }
+                AppLogger.i(TAG, "Playlist listed: " + count[0] + " entries from " + playlistUrl);
+                callback.onComplete(count[0]);
+            } catch (Exception e) {
+                String message = e.getMessage();
+                if (message != null && message.contains(ARCHIVE_BREAK)) {
+                    // --break-on-existing exits with an error status; that's the normal end of a sync
+                    AppLogger.i(TAG, "Playlist listed up to archived entries: " + count[0] + " new");
+                    callback.onComplete(count[0]);
                     return;
                 }
+                AppLogger.e(TAG, "Playlist enumeration error", e);
+                callback.onError(e.getMessage() != null ? e.getMessage() : "Playlist listing failed");
+            }
+        }).start();
+        return processId;
+    }
 
-                JSONObject json = new JSONObject(jsonOutput);
-
-                // Save info JSON for download reuse (skip re-parsing)
-                File infoDir = new File(context.getCacheDir(), "ytdlp_info");
-                if (!infoDir.exists()) infoDir.mkdirs();
-                File infoFile = new File(infoDir, videoId + ".info.json");
-                try (FileWriter fw = new FileWriter(infoFile)) {
-                    fw.write(jsonOutput);
-                    AppLogger.d(TAG, "Saved info JSON: " + infoFile.getAbsolutePath());
-                } catch (IOException e) {
-                    AppLogger.w(TAG, "Failed to cache info JSON: " + e.getMessage());
+    /**
+     * Extract a video in the background, refreshing the shared VideoInfoCache. Always
+     * extracts: the caller has already looked the video up (and counted that lookup).
+     */
+    public void parseVideo(String videoId, ParseCallback callback) {
+        videoInfoCache.logStats();
+        new Thread(() -> {
+            try {
+                callback.onSuccess(fetchVideoInfo(videoId));
+            } catch (Exception e) {
+                String message = e.getMessage();
+                AppLogger.e(TAG, "Exception parsing video: " + (message != null ? message : e.getClass().getName()), e);
+                if (message != null && isBotDetection(message)) {
+                    AppLogger.w(TAG, "Bot detection triggered");
+                    callback.onBotDetected();
+                } else {
+                    callback.onError(message != null ? message : "Unknown error");
                 }
+            }
+        }).start();
+    }
 
-                String title = json.optString("title", "Unknown");
-                String author = json.optString("uploader", "Unknown");
-                long duration = json.optLong("duration", 0);
-
-                // Thumbnail
-                String thumbnail = json.optString("thumbnail", null);
-                List<String> thumbnailUrls = new ArrayList<>();
-                JSONArray thumbArray = json.optJSONArray("thumbnails");
-                if (thumbArray != null) {
-                    for (int i = 0; i < thumbArray.length(); i++) {
-                        JSONObject t = thumbArray.optJSONObject(i);
-                        if (t != null && t.has("url")) {
-                            thumbnailUrls.add(t.getString("url"));
-                        }
-                    }
-                }
-                if (thumbnail == null && !thumbnailUrls.isEmpty()) {
-                    thumbnail = thumbnailUrls.get(thumbnailUrls.size() - 1);
-                }
+    /** Synchronous parseVideo: a fresh cached VideoInfo, or a new extraction. */
+    public VideoInfo getVideoInfo(String videoId) throws Exception {
+        VideoInfoCache.Entry cached = videoInfoCache.lookup(videoId);
+        videoInfoCache.logStats();
+        if (cached != null && !cached.isStale()) {
+            AppLogger.i(TAG, "Using cached info for " + videoId);
+            return cached.getInfo();
+        }
+        return fetchVideoInfo(videoId);
+    }
+
+    /**
+     * Run yt-dlp metadata extraction for one video on the calling thread, caching the info
+     * JSON for later downloads. Bot checks surface as exceptions; see isBotDetection.
+     */
+    public VideoInfo fetchVideoInfo(String videoId) throws Exception {
+        AppLogger.i(TAG, "Parsing video: " + videoId);
+        String videoUrl = "https://www.youtube.com/watch?v=" + videoId;
+
+        // yt-dlp writes the info JSON straight to disk and it's pull-parsed from there, so
+        // the multi-MB document never sits on the heap as a String or JSONObject
+        File pending = infoCache.newPendingFile(videoId);
+        YoutubeDLRequest request = new YoutubeDLRequest(videoUrl);
+        request.addOption("--write-info-json");
+        request.addOption("--skip-download");
+        request.addOption("-o", InfoJsonCache.outputTemplate(pending));
+        request.addOption("--no-playlist");
+        request.addOption("--no-check-certificates");
+        request.addOption("--no-warnings");
+        request.addOption("--socket-timeout", "10");
+
+        String cookieFile = getCookieFilePath();
+        if (cookieFile != null) {
+            request.addOption("--cookies", cookieFile);
+            AppLogger.d(TAG, "Using cookies file");
+        }
 
-                VideoInfo videoInfo = new VideoInfo(videoId, title, author, thumbnail, duration);
-                videoInfo.setThumbnailUrls(thumbnailUrls);
+        AppLogger.d(TAG, "yt-dlp command: " + request.buildCommand().toString());
 
-                // Parse formats
-                JSONArray formats = json.optJSONArray("formats");
-                if (formats == null) {
-                    callback.onError("No formats found");
-                    return;
-                }
+        InfoJsonParser.Info parsed;
+        try {
+            com.yausername.youtubedl_android.YoutubeDLResponse response =
+                    workers.execute(request, null, null);
 
-                AppLogger.i(TAG, "yt-dlp returned " + formats.length() + " raw formats");
+            String errOutput = response.getErr();
+            if (errOutput != null && !errOutput.isEmpty()) {
+                // stderr 可能包含警告、player client 回退等重要信息
+                AppLogger.w(TAG, "yt-dlp stderr:\n" + errOutput);
+            }
 
-                // Video dedup: key = resolution number
-                Map<Integer, VideoInfo.FormatOption> videoDedup = new HashMap<>();
-                // Audio dedup: key = abr (approx bitrate)
-                Map<Integer, VideoInfo.FormatOption> audioDedup = new HashMap<>();
+            if (!pending.isFile() || pending.length() == 0) {
+                throw new IOException("No response from yt-dlp");
+            }
+            AppLogger.d(TAG, "yt-dlp info JSON size: " + pending.length());
 
-                int skippedProtocol = 0, skippedNoCodec = 0, skippedNoRes = 0, skippedNoAbr = 0;
+            parsed = InfoJsonParser.parse(pending);
+        } catch (Exception e) {
+            pending.delete();
+            throw e;
+        }
 
-                for (int i = 0; i < formats.length(); i++) {
-                    JSONObject fmt = formats.getJSONObject(i);
+        // Keep the info JSON for download reuse (skip re-parsing)
+        infoCache.adopt(videoId, pending, parsed.expiresAt);
 
-                    String protocol = fmt.optString("protocol", "");
-                    String formatId = fmt.optString("format_id", "");
-                    String ext = fmt.optString("ext", "");
-                    String vcodec = fmt.optString("vcodec", "none");
-                    String acodec = fmt.optString("acodec", "none");
-                    long filesize = fmt.optLong("filesize", fmt.optLong("filesize_approx", 0));
-                    String formatNote = fmt.optString("format_note", "");
-                    int height = fmt.optInt("height", 0);
+        String title = parsed.title;
+        String author = parsed.uploader;
+        long duration = parsed.duration;
 
-                    boolean hasVideo = !"none".equals(vcodec);
-                    boolean hasAudio = !"none".equals(acodec);
+        // Thumbnail
+        String thumbnail = parsed.thumbnail;
+        List<String> thumbnailUrls = parsed.thumbnailUrls;
+        if (thumbnail == null && !thumbnailUrls.isEmpty()) {
+            thumbnail = thumbnailUrls.get(thumbnailUrls.size() - 1);
+        }
 
-                    // 记录每个格式的详细信息
-                    AppLogger.d(TAG, String.format("Format[%d]: id=%s ext=%s protocol=%s vcodec=%s acodec=%s height=%d note=%s size=%d",
-                            i, formatId, ext, protocol, vcodec, acodec, height, formatNote, filesize));
+        VideoInfo videoInfo = new VideoInfo(videoId, title, author, thumbnail, duration);
+        videoInfo.setThumbnailUrls(thumbnailUrls);
 
-                    if (protocol.contains("m3u8") || protocol.contains("dash_frag")) {
-                        skippedProtocol++;
-                        continue;
-                    }
+        // Parse formats
+        List<InfoJsonParser.Format> formats = parsed.formats;
+        if (formats == null) {
+            throw new IOException("No formats found");
+        }
 
-                    if (!hasVideo && !hasAudio) {
-                        skippedNoCodec++;
-                        continue;
-                    }
+        AppLogger.i(TAG, "yt-dlp returned " + formats.size() + " raw formats");
 
-                    if (hasVideo) {
-                        // Video format
-                        int res = height > 0 ? height : parseResolution(formatNote);
-                        if (res <= 0) {
-                            skippedNoRes++;
-                            AppLogger.d(TAG, "  -> skipped video: no resolution (height=" + height + ", note=" + formatNote + ")");
-                            continue;
-                        }
+        // Every usable format is a candidate; the ranker keeps one per resolution/bitrate
+        List<VideoInfo.FormatOption> videoCandidates = new ArrayList<>();
+        List<VideoInfo.FormatOption> audioCandidates = new ArrayList<>();
 
-                        String quality = res + "p";
-
-                        boolean isMp4 = "mp4".equals(ext) || "m4a".equals(ext);
-                        boolean exists = videoDedup.containsKey(res);
-
-                        // Prefer: muxed > video-only, mp4 > other
-                        if (!exists) {
-                            videoDedup.put(res, new VideoInfo.FormatOption(
-                                    formatId, quality, ext, ext, filesize, hasAudio, true));
-                            AppLogger.d(TAG, "  -> added video: " + quality + " (id=" + formatId + ")");
-                        } else {
-                            VideoInfo.FormatOption existing = videoDedup.get(res);
-                            boolean existingMuxed = existing.hasAudio();
-                            boolean existingMp4 = "mp4".equals(existing.getExt());
-
-                            if ((hasAudio && !existingMuxed) ||
-                                (hasAudio == existingMuxed && isMp4 && !existingMp4)) {
-                                videoDedup.put(res, new VideoInfo.FormatOption(
-                                        formatId, quality, ext, ext, filesize, hasAudio, true));
-                                AppLogger.d(TAG, "  -> replaced video: " + quality + " (id=" + formatId + ")");
-                            } else {
-                                AppLogger.d(TAG, "  -> dedup skipped video: " + res + "p (id=" + formatId + ", existing=" + existing.getFormatId() + ")");
-                            }
-                        }
-                    } else if (hasAudio) {
-                        // Audio-only format
-                        int abr = (int) fmt.optDouble("abr", 0);
-                        if (abr <= 0) {
-                            int tbr = (int) fmt.optDouble("tbr", 0);
-                            abr = tbr > 0 ? tbr : 0;
-                        }
-                        if (abr <= 0) {
-                            skippedNoAbr++;
-                            AppLogger.d(TAG, "  -> skipped audio: no bitrate (id=" + formatId + ")");
-                            continue;
-                        }
+        int skippedProtocol = 0, skippedNoCodec = 0, skippedNoRes = 0, skippedNoAbr = 0;
 
-                        String quality = abr + "kbps";
-                        boolean isMp4 = "m4a".equals(ext) || "mp4".equals(ext);
-                        boolean exists = audioDedup.containsKey(abr);
+        for (int i = 0; i < formats.size(); i++) {
+            InfoJsonParser.Format fmt = formats.get(i);
 
-                        if (!exists || (isMp4 && !"m4a".equals(audioDedup.get(abr).getExt()))) {
-                            audioDedup.put(abr, new VideoInfo.FormatOption(
-                                    formatId, quality, ext, ext, filesize, true, false));
-                            AppLogger.d(TAG, "  -> added audio: " + quality + " (id=" + formatId + ")");
-                        }
-                    }
-                }
+            String protocol = fmt.protocol;
+            String formatId = fmt.formatId;
+            String ext = fmt.ext;
+            String vcodec = fmt.vcodec;
+            String acodec = fmt.acodec;
+            long filesize = fmt.filesize > 0 ? fmt.filesize : fmt.filesizeApprox;
+            if (filesize <= 0 && duration > 0) {
+                // Estimate from total bitrate (kbit/s) when yt-dlp reports no size
+                filesize = (long) (fmt.tbr * 1000 / 8 * duration);
+            }
+            String formatNote = fmt.formatNote;
+            int height = fmt.height;
+
+            boolean hasVideo = !"none".equals(vcodec);
+            boolean hasAudio = !"none".equals(acodec);
+
+            // 记录每个格式的详细信息
+            AppLogger.d(TAG, String.format("Format[%d]: id=%s ext=%s protocol=%s vcodec=%s acodec=%s height=%d note=%s size=%d",
+                    i, formatId, ext, protocol, vcodec, acodec, height, formatNote, filesize));
 
-                AppLogger.i(TAG, String.format("Format filter stats: total=%d, skippedProtocol=%d, skippedNoCodec=%d, skippedNoRes=%d, skippedNoAbr=%d",
-                        formats.length(), skippedProtocol, skippedNoCodec, skippedNoRes, skippedNoAbr));
+            if (protocol.contains("m3u8") || protocol.contains("dash_frag")) {
+                skippedProtocol++;
+                continue;
+            }
+
+            if (!hasVideo && !hasAudio) {
+                skippedNoCodec++;
+                continue;
+            }
 
-                // Sort video by resolution ascending
-                List<Integer> sortedRes = new ArrayList<>(videoDedup.keySet());
-                Collections.sort(sortedRes);
-                List<VideoInfo.FormatOption> videoFormatList = new ArrayList<>();
-                for (int r : sortedRes) {
-                    videoFormatList.add(videoDedup.get(r));
+            if (hasVideo) {
+                // Video format
+                int res = height > 0 ? height : parseResolution(formatNote);
+                if (res <= 0) {
+                    skippedNoRes++;
+                    AppLogger.d(TAG, "  -> skipped video: no resolution (height=" + height + ", note=" + formatNote + ")");
+                    continue;
                 }
-                videoInfo.setVideoFormats(videoFormatList);
-
-                // Sort audio by bitrate ascending
-                List<Integer> sortedAbr = new ArrayList<>(audioDedup.keySet());
-                Collections.sort(sortedAbr);
-                List<VideoInfo.FormatOption> audioFormatList = new ArrayList<>();
-                for (int a : sortedAbr) {
-                    audioFormatList.add(audioDedup.get(a));
+
+                VideoInfo.FormatOption option = new VideoInfo.FormatOption(
+                        formatId, res + "p", ext, ext, filesize, hasAudio, true);
+                option.setCodecs(vcodec, acodec);
+                option.setDimensions(fmt.width, res);
+                option.setFps(fmt.fps);
+                option.setTbr(fmt.tbr);
+                option.setDynamicRange(fmt.dynamicRange);
+                videoCandidates.add(option);
+            } else {
+                // Audio-only format
+                int abr = (int) fmt.abr;
+                if (abr <= 0) {
+                    int tbr = (int) fmt.tbr;
+                    abr = tbr > 0 ? tbr : 0;
+                }
+                if (abr <= 0) {
+                    skippedNoAbr++;
+                    AppLogger.d(TAG, "  -> skipped audio: no bitrate (id=" + formatId + ")");
+                    continue;
                 }
-                videoInfo.setAudioFormats(audioFormatList);
 
-                AppLogger.i(TAG, "Parse success: " + title + " - " + videoFormatList.size() + " video, " + audioFormatList.size() + " audio formats");
-                callback.onSuccess(videoInfo);
+                VideoInfo.FormatOption option = new VideoInfo.FormatOption(
+                        formatId, abr + "kbps", ext, ext, filesize, true, false);
+                option.setCodecs(vcodec, acodec);
+                option.setTbr(abr);
+                audioCandidates.add(option);
+            }
+        }
+
+        AppLogger.i(TAG, String.format("Format filter stats: total=%d, skippedProtocol=%d, skippedNoCodec=%d, skippedNoRes=%d, skippedNoAbr=%d",
+                formats.size(), skippedProtocol, skippedNoCodec, skippedNoRes, skippedNoAbr));
 
-            } catch (Exception e) {
-                String message = e.getMessage();
-                AppLogger.e(TAG, "Exception parsing video: " + (message != null ? message : e.getClass().getName()), e);
-                if (message != null && isBotDetection(message)) {
-                    AppLogger.w(TAG, "Bot detection triggered");
-                    callback.onBotDetected();
-                } else {
-                    callback.onError(message != null ? message : "Unknown error");
-                }
+        // Both lists come back sorted ascending
+        List<VideoInfo.FormatOption> videoFormatList = formatRanker.bestPerHeight(videoCandidates);
+        List<VideoInfo.FormatOption> audioFormatList = formatRanker.bestPerBitrate(audioCandidates);
+
+        // Video-only formats merge with the best scoring audio rather than yt-dlp's bestaudio
+        VideoInfo.FormatOption mergeAudio = formatRanker.best(audioCandidates);
+        if (mergeAudio != null) {
+            for (VideoInfo.FormatOption option : videoFormatList) {
+                if (!option.hasAudio()) option.setBestAudio(mergeAudio);
             }
-        }).start();
+        }
+        videoInfo.setVideoFormats(videoFormatList);
+        videoInfo.setAudioFormats(audioFormatList);
+
+        AppLogger.i(TAG, "Parse success: " + title + " - " + videoFormatList.size() + " video, " + audioFormatList.size() + " audio formats");
+        videoInfoCache.put(videoInfo);
+        return videoInfo;
     }
 
     /**
      * Download using yt-dlp. Returns the process ID for cancellation.
+     * rateLimit is the initial rate in bytes per second (0 = unlimited); see setDownloadRateLimit.
      */
     public String downloadWithYtDlp(String videoId, String formatSpec, String outputPath,
-                                     DownloadCallback callback) {
+                                     long rateLimit, DownloadCallback callback) {
         String processId = UUID.randomUUID().toString();
         new Thread(() -> {
             try {
-                String videoUrl = "https://www.youtube.com/watch?v=" + videoId;
-                YoutubeDLRequest request = new YoutubeDLRequest(videoUrl);
-
-                // Reuse cached info JSON to skip re-parsing
-                File infoFile = new File(new File(context.getCacheDir(), "ytdlp_info"), videoId + ".info.json");
-                if (infoFile.exists()) {
-                    request.addOption("--load-info-json", infoFile.getAbsolutePath());
-                }
-
-                request.addOption("-f", formatSpec);
-                request.addOption("-o", outputPath);
-                request.addOption("--merge-output-format", "mp4");
-                request.addOption("--no-playlist");
-                request.addOption("--no-check-certificates");
-                request.addOption("-c"); // continue/resume partial downloads
-
-                String cookieFile = getCookieFilePath();
-                if (cookieFile != null) {
-                    request.addOption("--cookies", cookieFile);
-                }
-
+                YoutubeDLRequest request = buildDownloadRequest(videoId, formatSpec, outputPath, rateLimit);
                 AppLogger.i(TAG, "yt-dlp download command: " + request.buildCommand().toString());
 
-                final long[] cachedTotal = {0};
+                YtDlpProgress scanner = new YtDlpProgress();
 
                 com.yausername.youtubedl_android.YoutubeDLResponse dlResponse =
-                    YoutubeDL.getInstance().execute(request, processId, (progress, etaInSeconds, line) -> {
-                        if (line != null && !line.isEmpty()) {
+                    workers.execute(request, processId, (progress, etaInSeconds, line) -> {
+                        if (scanner.scan(line)) {
+                            callback.onProgress(scanner);
+                        } else if (line != null && !line.isEmpty()) {
                             AppLogger.d(TAG, line);
-                            long parsed = parseTotalBytes(line);
-                            if (parsed > 0) cachedTotal[0] = parsed;
-                        }
-                        int pct = progress.intValue();
-                        if (pct >= 0) {
-                            long downloaded = cachedTotal[0] > 0 ? (long)(cachedTotal[0] * pct / 100.0) : 0;
-                            callback.onProgress(pct, downloaded, cachedTotal[0]);
+                            if (line.contains("HTTP Error 429")) {
+                                callback.onRateLimited();
+                            }
                         }
-                        return kotlin.Unit.INSTANCE;
                     });
 
                 // 输出 stderr 便于调试
@@ -377,12 +476,182 @@ public class YoutubeService {
 
             } catch (Exception e) {
                 AppLogger.e(TAG, "yt-dlp download error", e);
+                if (e.getMessage() != null && e.getMessage().contains("HTTP Error 403")) {
+                    infoCache.invalidate(videoId);
+                }
+                callback.onError(e.getMessage() != null ? e.getMessage() : "Download failed");
+            }
+        }).start();
+        return processId;
+    }
+
+    /**
+     * Download several formats of one video in a single yt-dlp process (comma-separated -f),
+     * so Python starts and the video is validated once. outputTemplate must contain
+     * %(format_id)s so the outputs don't collide; each output is attributed to its format
+     * by the order in which yt-dlp starts them. Returns the process ID for cancellation.
+     */
+    public String downloadBatchWithYtDlp(String videoId, List<String> formatSpecs, String outputTemplate,
+                                         long rateLimit, BatchCallback callback) {
+        String processId = UUID.randomUUID().toString();
+        new Thread(() -> {
+            try {
+                YoutubeDLRequest request = buildDownloadRequest(
+                        videoId, String.join(",", formatSpecs), outputTemplate, rateLimit);
+                AppLogger.i(TAG, "yt-dlp batch command: " + request.buildCommand().toString());
+
+                // Outputs are named <base>.<format_id>.<ext>; format IDs are assigned to
+                // spec indices in order of first appearance
+                String prefix = new File(outputTemplate).getName();
+                prefix = prefix.substring(0, prefix.indexOf("%(format_id)s"));
+                String filePrefix = prefix;
+                Map<String, Integer> indexByFormatId = new HashMap<>();
+                String[] paths = new String[formatSpecs.size()];
+                boolean[] merged = new boolean[paths.length];
+                final int[] current = {-1};
+                YtDlpProgress scanner = new YtDlpProgress();
+
+                com.yausername.youtubedl_android.YoutubeDLResponse dlResponse =
+                    workers.execute(request, processId, (progress, etaInSeconds, line) -> {
+                        if (scanner.scan(line)) {
+                            if (current[0] >= 0) callback.onProgress(current[0], scanner);
+                        } else if (line != null && !line.isEmpty()) {
+                            AppLogger.d(TAG, line);
+                            if (line.contains("HTTP Error 429")) {
+                                callback.onRateLimited();
+                            }
+                            String path = matchGroup(DESTINATION_LINE, line);
+                            boolean isMerge = false;
+                            if (path == null) {
+                                path = matchGroup(MERGER_LINE, line);
+                                isMerge = path != null;
+                            }
+                            if (path == null) {
+                                path = matchGroup(ALREADY_DOWNLOADED_LINE, line);
+                            }
+                            if (path != null) {
+                                int index = indexForPath(path, filePrefix, indexByFormatId, paths.length);
+                                if (index >= 0) {
+                                    current[0] = index;
+                                    // A merged file supersedes the per-stream destinations
+                                    if (isMerge || !merged[index]) {
+                                        paths[index] = path;
+                                        merged[index] = isMerge;
+                                    }
+                                }
+                            }
+                        }
+                    });
+
+                String err = dlResponse.getErr();
+                if (err != null && !err.isEmpty()) {
+                    AppLogger.w(TAG, "yt-dlp stderr:\n" + err);
+                }
+
+                for (int i = 0; i < paths.length; i++) {
+                    if (paths[i] != null && !new File(paths[i]).exists()) {
+                        paths[i] = null;
+                    }
+                }
+                AppLogger.i(TAG, "Batch complete for " + videoId + ": " + Arrays.toString(paths));
+                callback.onSuccess(paths);
+            } catch (Exception e) {
+                AppLogger.e(TAG, "yt-dlp batch download error", e);
                 callback.onError(e.getMessage() != null ? e.getMessage() : "Download failed");
             }
         }).start();
         return processId;
     }
 
+    private YoutubeDLRequest buildDownloadRequest(String videoId, String formatSpec, String outputPath,
+                                                  long rateLimit) {
+        String videoUrl = "https://www.youtube.com/watch?v=" + videoId;
+        YoutubeDLRequest request = new YoutubeDLRequest(videoUrl);
+
+        // Reuse cached info JSON to skip re-parsing, unless its URLs are about to expire
+        File infoFile = infoCache.lookup(videoId);
+        if (infoFile != null) {
+            request.addOption("--load-info-json", infoFile.getAbsolutePath());
+        }
+
+        request.addOption("-f", formatSpec);
+        request.addOption("-o", outputPath);
+        request.addOption("--merge-output-format", "mp4");
+        request.addOption("--no-playlist");
+        request.addOption("--no-check-certificates");
+        request.addOption("-c"); // continue/resume partial downloads
+        YtDlpProgress.addOptions(request);
+        if (rateLimit > 0) {
+            request.addOption("-r", String.valueOf(rateLimit));
+        }
+
+        String cookieFile = getCookieFilePath();
+        if (cookieFile != null) {
+            request.addOption("--cookies", cookieFile);
+        }
+        return request;
+    }
+
+    private static String matchGroup(Pattern pattern, String line) {
+        Matcher m = pattern.matcher(line);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /** Map an output path to its format's index, assigning new format IDs in order. */
+    private static int indexForPath(String path, String filePrefix, Map<String, Integer> indexByFormatId, int count) {
+        String name = new File(path).getName();
+        if (!name.startsWith(filePrefix)) return -1;
+        String rest = name.substring(filePrefix.length());
+        int dot = rest.indexOf('.');
+        if (dot <= 0) return -1;
+        String formatId = rest.substring(0, dot);
+        Integer index = indexByFormatId.get(formatId);
+        if (index == null) {
+            if (indexByFormatId.size() >= count) return -1;
+            index = indexByFormatId.size();
+            indexByFormatId.put(formatId, index);
+        }
+        return index;
+    }
+
+    /** Drop cached info JSON whose URLs turned out to be unusable, so the next use re-extracts. */
+    public void invalidateVideoInfo(String videoId) {
+        infoCache.invalidate(videoId);
+    }
+
+    /**
+     * Look up a single format's direct URL in the cached info JSON, for the in-app
+     * segmented downloader. Returns null when there is no cached info, the format is
+     * fragmented (HLS/DASH manifests), or its exact size is unknown.
+     */
+    public SegmentedDownloader.Source findDirectSource(String videoId, String formatId) {
+        File infoFile = infoCache.lookup(videoId);
+        if (infoFile == null) {
+            // Missing or close to expiry: extract fresh URLs (we're on a background thread)
+            try {
+                fetchVideoInfo(videoId);
+            } catch (Exception e) {
+                AppLogger.w(TAG, "Re-extraction for " + videoId + " failed: " + e.getMessage());
+                return null;
+            }
+            infoFile = infoCache.lookup(videoId);
+            if (infoFile == null) return null;
+        }
+        try {
+            InfoJsonParser.Direct fmt = InfoJsonParser.findFormat(infoFile, formatId);
+            if (fmt == null) return null;
+            if (!("https".equals(fmt.protocol) || "http".equals(fmt.protocol)) || fmt.url.isEmpty() || fmt.filesize <= 0) {
+                AppLogger.d(TAG, "Format " + formatId + " not directly downloadable (protocol="
+                        + fmt.protocol + ", size=" + fmt.filesize + ")");
+                return null;
+            }
+            return new SegmentedDownloader.Source(fmt.url, fmt.filesize, fmt.ext, fmt.headers);
+        } catch (IOException e) {
+            AppLogger.w(TAG, "Failed to read info JSON for " + videoId + ": " + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Find the actual output file. yt-dlp may substitute %(ext)s with the real extension.
      */
@@ -423,12 +692,20 @@ public class YoutubeService {
 
     public void cancelDownload(String processId) {
         if (processId != null) {
-            YoutubeDL.getInstance().destroyProcessById(processId);
+            workers.cancel(processId);
             AppLogger.i(TAG, "Cancelled download process: " + processId);
         }
     }
 
-    private static boolean isBotDetection(String message) {
+    /**
+     * Change a running download's rate limit without restarting it (bytes per second,
+     * 0 = unlimited). Returns false if the process can't take it and keeps its launch rate.
+     */
+    public boolean setDownloadRateLimit(String processId, long bytesPerSec) {
+        return processId != null && workers.setRateLimit(processId, bytesPerSec);
+    }
+
+    static boolean isBotDetection(String message) {
         for (String keyword : BOT_DETECTION_KEYWORDS) {
             if (message.contains(keyword)) return true;
         }
@@ -437,25 +714,7 @@ public class YoutubeService {
 
     private static int parseResolution(String qualityLabel) {
         if (qualityLabel == null) return 0;
-        Matcher m = Pattern.compile("(\\d+)p").matcher(qualityLabel);
+        Matcher m = RESOLUTION_LABEL.matcher(qualityLabel);
         return m.find() ? Integer.parseInt(m.group(1)) : 0;
     }
-
-    /**
-     * Parse total bytes from yt-dlp output line like:
-     * "[download]  45.3% of 125.50MiB at 10.00MiB/s ETA 00:30"
-     */
-    private static long parseTotalBytes(String line) {
-        if (line == null) return 0;
-        Matcher m = Pattern.compile("of\\s+~?\\s*(\\d+\\.?\\d*)\\s*(KiB|MiB|GiB)").matcher(line);
-        if (m.find()) {
-            double val = Double.parseDouble(m.group(1));
-            switch (m.group(2)) {
-                case "KiB": return (long) (val * 1024);
-                case "MiB": return (long) (val * 1024 * 1024);
-                case "GiB": return (long) (val * 1024 * 1024 * 1024);
-            }
-        }
-        return 0;
-    }
 }
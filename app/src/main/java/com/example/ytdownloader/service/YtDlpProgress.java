@@ -0,0 +1,187 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.model.DownloadTask;
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+
+/**
+ * yt-dlp progress in machine-readable form, and the scanner that fills it.
+ *
+ * {@link #addOptions} makes yt-dlp print one space-separated line per progress update
+ * (via --progress-template) instead of the human-readable "[download] 45.3% of ..." text;
+ * {@link #scan} reads such a line back into this object's fields. One instance is reused
+ * for every line of a run and scanning allocates nothing, since progress lines arrive many
+ * times a second per download. Callers must copy what they need before the next scan.
+ */
+public class YtDlpProgress {
+    private static final String DOWNLOAD_TAG = "[ytp]";
+    private static final String POSTPROCESS_TAG = "[ytpp]";
+    private static final String DOWNLOAD_TEMPLATE = "download:" + DOWNLOAD_TAG
+            + " %(progress.status)s %(progress.downloaded_bytes)s %(progress.total_bytes)s"
+            + " %(progress.total_bytes_estimate)s %(progress.speed)s %(progress.eta)s"
+            + " %(progress.fragment_index)s %(progress.fragment_count)s";
+    private static final String POSTPROCESS_TEMPLATE = "postprocess:" + POSTPROCESS_TAG
+            + " %(progress.status)s %(progress.postprocessor)s";
+
+    private DownloadTask.Phase phase = DownloadTask.Phase.DOWNLOAD;
+    private boolean finished;
+    private long downloadedBytes;
+    private long totalBytes;
+    private long speed;
+    private long etaSeconds;
+    private int fragmentIndex;
+    private int fragmentCount;
+
+    // Scan cursor into the current line
+    private String line;
+    private int pos;
+
+    /** Switch a download request to template progress output. */
+    public static void addOptions(YoutubeDLRequest request) {
+        request.addOption("--newline");
+        request.addOption("--progress-template", DOWNLOAD_TEMPLATE);
+        request.addOption("--progress-template", POSTPROCESS_TEMPLATE);
+    }
+
+    public DownloadTask.Phase getPhase() { return phase; }
+
+    /** The current stream (DOWNLOAD) or postprocessor step has finished. */
+    public boolean isFinished() { return finished; }
+
+    /** Bytes of the current stream so far, or -1 if unknown. */
+    public long getDownloadedBytes() { return downloadedBytes; }
+
+    /** Size of the current stream, exact or estimated, or -1 if unknown. */
+    public long getTotalBytes() { return totalBytes; }
+
+    /** In bytes per second, or -1 if unknown. */
+    public long getSpeed() { return speed; }
+
+    public long getEtaSeconds() { return etaSeconds; }
+
+    /** 1-based fragment number for fragmented (DASH/HLS) streams, or -1. */
+    public int getFragmentIndex() { return fragmentIndex; }
+
+    public int getFragmentCount() { return fragmentCount; }
+
+    /** Percent of the current stream, or -1 if the size isn't known. */
+    public int getPercent() {
+        if (downloadedBytes < 0 || totalBytes <= 0) return -1;
+        return (int) Math.min(100, downloadedBytes * 100 / totalBytes);
+    }
+
+    /**
+     * Parse one output line. Returns false, leaving the fields untouched, if it isn't a
+     * template progress line.
+     */
+    public boolean scan(String line) {
+        if (line == null) return false;
+        this.line = line;
+        pos = 0;
+        skipSpaces();
+        if (line.startsWith(DOWNLOAD_TAG, pos)) {
+            pos += DOWNLOAD_TAG.length();
+            return scanDownload();
+        }
+        if (line.startsWith(POSTPROCESS_TAG, pos)) {
+            pos += POSTPROCESS_TAG.length();
+            return scanPostprocess();
+        }
+        return false;
+    }
+
+    private boolean scanDownload() {
+        skipSpaces();
+        int statusStart = pos;
+        int statusLen = skipToken();
+        if (statusLen == 0) return false;
+        phase = DownloadTask.Phase.DOWNLOAD;
+        finished = statusLen == 8 && line.regionMatches(statusStart, "finished", 0, 8);
+        downloadedBytes = nextLong();
+        long total = nextLong();
+        long estimate = nextLong();
+        totalBytes = total > 0 ? total : estimate;
+        speed = nextLong();
+        etaSeconds = nextLong();
+        fragmentIndex = (int) nextLong();
+        fragmentCount = (int) nextLong();
+        return true;
+    }
+
+    private boolean scanPostprocess() {
+        skipSpaces();
+        int statusStart = pos;
+        int statusLen = skipToken();
+        if (statusLen == 0) return false;
+        skipSpaces();
+        int nameStart = pos;
+        int nameLen = skipToken();
+        phase = nameLen == 6 && line.regionMatches(nameStart, "Merger", 0, 6)
+                ? DownloadTask.Phase.MERGE : DownloadTask.Phase.POSTPROCESS;
+        finished = statusLen == 8 && line.regionMatches(statusStart, "finished", 0, 8);
+        speed = -1;
+        etaSeconds = -1;
+        return true;
+    }
+
+    /**
+     * Next field as a whole number: Python ints and floats ("1234", "1234.56", "1.2e+06")
+     * are truncated, "NA"/"None" and anything unparsable give -1.
+     */
+    private long nextLong() {
+        skipSpaces();
+        int start = pos;
+        int len = skipToken();
+        if (len == 0) return -1;
+        long whole = 0;
+        double fraction = 0;
+        double scale = 0.1;
+        int exponent = 0;
+        boolean exponentNegative = false;
+        int i = start;
+        int end = start + len;
+        boolean digits = false;
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') break;
+            whole = whole * 10 + (c - '0');
+            digits = true;
+        }
+        if (i < end && line.charAt(i) == '.') {
+            for (i++; i < end; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') break;
+                fraction += (c - '0') * scale;
+                scale /= 10;
+                digits = true;
+            }
+        }
+        if (!digits) return -1;
+        if (i < end && (line.charAt(i) == 'e' || line.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (line.charAt(i) == '+' || line.charAt(i) == '-')) {
+                exponentNegative = line.charAt(i) == '-';
+                i++;
+            }
+            for (; i < end; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                exponent = exponent * 10 + (c - '0');
+            }
+        }
+        if (i != end) return -1;
+        if (exponent == 0) return whole;
+        double value = (whole + fraction) * Math.pow(10, exponentNegative ? -exponent : exponent);
+        return (long) value;
+    }
+
+    private void skipSpaces() {
+        while (pos < line.length() && line.charAt(pos) == ' ') pos++;
+    }
+
+    // Advance past one space-delimited token; returns its length
+    private int skipToken() {
+        int start = pos;
+        while (pos < line.length() && line.charAt(pos) != ' ') pos++;
+        return pos - start;
+    }
+}
@@ -0,0 +1,565 @@
+package com.example.ytdownloader.service;
+
+import android.content.Context;
+
+import com.example.ytdownloader.manager.AppLogger;
+import com.example.ytdownloader.manager.EngineInitializer;
+import com.yausername.youtubedl_android.YoutubeDL;
+import com.yausername.youtubedl_android.YoutubeDLException;
+import com.yausername.youtubedl_android.YoutubeDLRequest;
+import com.yausername.youtubedl_android.YoutubeDLResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a few yt-dlp interpreters running so requests skip Python startup and the
+ * yt-dlp import (seconds of CPU per call on phones).
+ *
+ * Each worker runs assets/ytdlp_worker.py with the same interpreter, yt-dlp build and
+ * environment youtubedl-android uses, and executes one request at a time. Requests are
+ * JSON lines on stdin; the worker answers with prefixed JSON events and raw yt-dlp output
+ * lines on stdout (see the script). Only the last MAX_OUTPUT_LINES of output are kept for
+ * the response; callers see every line through their callback. Cancelling asks the worker to abort the request and kills it if it doesn't
+ * within CANCEL_GRACE_MS; a download's rate limit can be changed in place the same way
+ * (setRateLimit). Dead workers are replaced, and workers started before a yt-dlp
+ * update are retired. When no worker can be had, requests fall back to
+ * YoutubeDL.execute with the same results.
+ */
+public class YtDlpWorkerPool {
+    private static final String TAG = "YtDlpWorker";
+    private static final String SCRIPT_ASSET = "ytdlp_worker.py";
+    private static final String PROTOCOL_PREFIX = "\u001eYTW ";
+    private static final String OUTPUT_PREFIX = "\u001eYTL ";
+    // Last lines of stdout kept for the response; downloads print progress for hours
+    private static final int MAX_OUTPUT_LINES = 100;
+    // Every download slot, plus one for a parse or playlist listing alongside them
+    private static final int MAX_WORKERS = ConcurrencyController.MAX_LIMIT + 1;
+    private static final int MAX_IDLE = 2;
+    // The worker kills its own process group after 2 s; this backs that up
+    private static final long CANCEL_GRACE_MS = 3000;
+    // Give up on workers after this many failed starts in a row
+    private static final int MAX_SPAWN_FAILURES = 3;
+    // Same progress format youtubedl-android extracts from yt-dlp output
+    private static final Pattern PROGRESS_LINE =
+            Pattern.compile("\\[download\\]\\s+(\\d+\\.\\d)% .* ETA (\\d+):(\\d+)");
+
+    public interface LineCallback {
+        void onLine(float progress, long etaSeconds, String line);
+    }
+
+    private static volatile YtDlpWorkerPool instance;
+
+    public static YtDlpWorkerPool get(Context context) {
+        YtDlpWorkerPool p = instance;
+        if (p == null) {
+            synchronized (YtDlpWorkerPool.class) {
+                p = instance;
+                if (p == null) {
+                    p = new YtDlpWorkerPool(context.getApplicationContext());
+                    instance = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    private final Context context;
+    private final File python;
+    private final File ytdlp;
+    private final File ffmpeg;
+    private final File quickJs;
+    private final File script;
+    private final List<String> environment = new ArrayList<>();
+    private final ScheduledExecutorService killer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ytdlp-worker-killer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Guarded by this
+    private final ArrayDeque<Worker> idle = new ArrayDeque<>();
+    private int liveWorkers;
+    private int spawnFailures;
+    private boolean scriptInstalled;
+
+    // Every request from the moment execute() is called, so a cancel that arrives while
+    // it still waits for the engine or a worker isn't lost
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private static class Job {
+        volatile boolean cancelled;
+        volatile boolean fallback;
+        volatile long rate = -1; // latest setRateLimit, -1 if never changed
+        volatile Worker worker; // null until one is acquired, or when using the fallback
+    }
+
+    private YtDlpWorkerPool(Context context) {
+        this.context = context;
+        // Mirrors YoutubeDL.init's layout
+        File baseDir = new File(context.getNoBackupFilesDir(), YoutubeDL.baseName);
+        File packagesDir = new File(baseDir, "packages");
+        File binDir = new File(context.getApplicationInfo().nativeLibraryDir);
+        python = new File(binDir, "libpython.so");
+        ffmpeg = new File(binDir, "libffmpeg.so");
+        quickJs = new File(binDir, "libqjs.so");
+        ytdlp = new File(new File(baseDir, YoutubeDL.ytdlpDirName), YoutubeDL.ytdlpBin);
+        script = new File(baseDir, SCRIPT_ASSET);
+        String pythonDir = new File(packagesDir, "python").getAbsolutePath();
+        environment.add("LD_LIBRARY_PATH=" + pythonDir + "/usr/lib:"
+                + new File(packagesDir, "ffmpeg").getAbsolutePath() + "/usr/lib:"
+                + new File(packagesDir, "aria2c").getAbsolutePath() + "/usr/lib");
+        environment.add("SSL_CERT_FILE=" + pythonDir + "/usr/etc/tls/cert.pem");
+        environment.add("PATH=" + System.getenv("PATH") + ":" + binDir.getAbsolutePath());
+        environment.add("PYTHONHOME=" + pythonDir + "/usr");
+        environment.add("HOME=" + pythonDir + "/usr");
+        environment.add("TMPDIR=" + context.getCacheDir().getAbsolutePath());
+    }
+
+    /** Start a worker in the background so the first request doesn't pay for it. */
+    public void warmUp() {
+        new Thread(() -> {
+            try {
+                awaitEngine();
+            } catch (YoutubeDLException | InterruptedException e) {
+                return;
+            }
+            Worker worker = acquire();
+            if (worker != null) release(worker);
+        }, "ytdlp-worker-warmup").start();
+    }
+
+    /** Retire all workers, e.g. after yt-dlp was updated; running requests finish first. */
+    public void restart() {
+        List<Worker> retired;
+        synchronized (this) {
+            retired = new ArrayList<>(idle);
+            idle.clear();
+            spawnFailures = 0;
+        }
+        for (Worker worker : retired) {
+            worker.shutdown();
+        }
+        for (Job job : jobs.values()) {
+            Worker worker = job.worker;
+            if (worker != null) worker.retired = true;
+        }
+        AppLogger.i(TAG, "Restarting workers");
+        warmUp();
+    }
+
+    /**
+     * Run a request like YoutubeDL.execute: same output, exceptions and cancellation by
+     * processId. callback may be null.
+     */
+    public YoutubeDLResponse execute(YoutubeDLRequest request, String processId, LineCallback callback)
+            throws YoutubeDLException, InterruptedException, YoutubeDL.CanceledException {
+        String id = processId != null ? processId : UUID.randomUUID().toString();
+        Job job = new Job();
+        jobs.put(id, job);
+        try {
+            awaitEngine();
+            Worker worker = acquire();
+            if (job.cancelled) {
+                if (worker != null) release(worker);
+                throw new YoutubeDL.CanceledException();
+            }
+            if (worker == null) {
+                AppLogger.w(TAG, "No worker available, running " + id + " in a new yt-dlp process");
+                job.fallback = true;
+                return YoutubeDL.getInstance().execute(request, id, (progress, eta, line) -> {
+                    if (callback != null) callback.onLine(progress, eta, line);
+                    return kotlin.Unit.INSTANCE;
+                });
+            }
+            job.worker = worker;
+            try {
+                return worker.run(id, job, buildArgs(request), callback, System.currentTimeMillis());
+            } finally {
+                release(worker);
+            }
+        } finally {
+            jobs.remove(id);
+        }
+    }
+
+    /** Abort a request started with execute; works for both workers and the fallback. */
+    public void cancel(String processId) {
+        Job job = jobs.get(processId);
+        if (job != null) {
+            // Checked by execute() before it runs anything, and by Worker.run after sending
+            job.cancelled = true;
+        }
+        Worker worker = job != null ? job.worker : null;
+        if (worker == null) {
+            YoutubeDL.getInstance().destroyProcessById(processId);
+            return;
+        }
+        worker.cancel(processId);
+        killer.schedule(() -> {
+            Job current = jobs.get(processId);
+            if (current != null && current.worker == worker) {
+                AppLogger.w(TAG, "Worker ignored cancel of " + processId + ", killing it");
+                worker.kill();
+            }
+        }, CANCEL_GRACE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Change the download rate of a running request in place (bytes per second, 0 =
+     * unlimited). Returns false if the request can't take it: it runs in a fallback
+     * process, which keeps the -r it was launched with, or it has already finished.
+     */
+    public boolean setRateLimit(String processId, long bytesPerSec) {
+        Job job = jobs.get(processId);
+        if (job == null || job.fallback) return false;
+        // Sent by Worker.run once the request starts, if no worker has it yet
+        job.rate = Math.max(0, bytesPerSec);
+        Worker worker = job.worker;
+        if (worker != null) worker.setRate(processId, job.rate);
+        return true;
+    }
+
+    // Parse and download calls may arrive while YoutubeDL/FFmpeg are still being extracted
+    private void awaitEngine() throws YoutubeDLException, InterruptedException {
+        try {
+            EngineInitializer.start(context).get();
+        } catch (ExecutionException e) {
+            throw new YoutubeDLException("yt-dlp failed to initialize", e.getCause());
+        }
+    }
+
+    // The options YoutubeDL.execute would add on its own
+    private List<String> buildArgs(YoutubeDLRequest request) {
+        List<String> args = new ArrayList<>(request.buildCommand());
+        if (!request.hasOption("--cache-dir") || request.getOption("--cache-dir") == null) {
+            args.add("--no-cache-dir");
+        }
+        if (quickJs.exists() && !request.hasOption("--js-runtimes")) {
+            args.add("--js-runtimes");
+            args.add("quickjs:" + quickJs.getAbsolutePath());
+        }
+        if (!request.hasOption("--ffmpeg-location")) {
+            args.add("--ffmpeg-location");
+            args.add(ffmpeg.getAbsolutePath());
+        }
+        return args;
+    }
+
+    private Worker acquire() {
+        long stamp = ytdlp.lastModified();
+        synchronized (this) {
+            while (!idle.isEmpty()) {
+                Worker worker = idle.poll();
+                if (worker.isAlive() && worker.ytdlpStamp == stamp) return worker;
+                // Crashed while idle, or started before a yt-dlp update
+                worker.shutdown();
+            }
+            if (liveWorkers >= MAX_WORKERS || spawnFailures >= MAX_SPAWN_FAILURES) return null;
+            liveWorkers++;
+        }
+        Worker worker = null;
+        try {
+            worker = spawn(stamp);
+            return worker;
+        } catch (IOException e) {
+            AppLogger.w(TAG, "Worker failed to start: " + e.getMessage());
+            return null;
+        } finally {
+            synchronized (this) {
+                if (worker == null) {
+                    liveWorkers--;
+                    spawnFailures++;
+                } else {
+                    spawnFailures = 0;
+                }
+            }
+        }
+    }
+
+    private void release(Worker worker) {
+        if (worker.isAlive() && !worker.retired && worker.ytdlpStamp == ytdlp.lastModified()) {
+            synchronized (this) {
+                if (idle.size() < MAX_IDLE) {
+                    idle.push(worker);
+                    return;
+                }
+            }
+        }
+        worker.shutdown();
+    }
+
+    private Worker spawn(long stamp) throws IOException {
+        if (!python.exists() || !ytdlp.exists()) {
+            throw new IOException("yt-dlp not initialized");
+        }
+        installScript();
+        long start = System.currentTimeMillis();
+        ProcessBuilder builder = new ProcessBuilder(python.getAbsolutePath(), "-u",
+                script.getAbsolutePath(), ytdlp.getAbsolutePath());
+        Map<String, String> env = builder.environment();
+        for (String entry : environment) {
+            int eq = entry.indexOf('=');
+            env.put(entry.substring(0, eq), entry.substring(eq + 1));
+        }
+        Process process = builder.start();
+        Worker worker = new Worker(process, stamp);
+        JSONObject ready = worker.readMessage();
+        if (ready == null || !"ready".equals(ready.optString("event"))) {
+            worker.kill();
+            throw new IOException("worker exited during startup");
+        }
+        AppLogger.i(TAG, "Worker started in " + (System.currentTimeMillis() - start)
+                + "ms (yt-dlp " + ready.optString("version") + ")");
+        return worker;
+    }
+
+    private synchronized void installScript() throws IOException {
+        if (scriptInstalled) return;
+        // Rewritten once per app process so an app update replaces it
+        File tmp = new File(script.getPath() + ".tmp");
+        try (InputStream in = context.getAssets().open(SCRIPT_ASSET);
+             OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+        if (!tmp.renameTo(script)) {
+            tmp.delete();
+            throw new IOException("Failed to install " + SCRIPT_ASSET);
+        }
+        scriptInstalled = true;
+    }
+
+    private void onWorkerExit(Worker worker) {
+        boolean replace;
+        synchronized (this) {
+            liveWorkers--;
+            idle.remove(worker);
+            replace = !worker.retired && !worker.shuttingDown && idle.isEmpty();
+        }
+        if (replace) {
+            // Crashed or killed: keep one warm worker around
+            AppLogger.w(TAG, "Worker exited, starting a replacement");
+            warmUp();
+        }
+    }
+
+    private class Worker {
+        final Process process;
+        final long ytdlpStamp;
+        private final Writer stdin;
+        private final BufferedReader stdout;
+        private volatile String currentId;
+        private volatile boolean cancelled;
+        volatile boolean retired;
+        volatile boolean shuttingDown;
+        private boolean exited; // guarded by this
+
+        Worker(Process process, long ytdlpStamp) {
+            this.process = process;
+            this.ytdlpStamp = ytdlpStamp;
+            this.stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            this.stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            Thread stderr = new Thread(this::drainStderr, "ytdlp-worker-stderr");
+            stderr.setDaemon(true);
+            stderr.start();
+        }
+
+        boolean isAlive() {
+            synchronized (this) {
+                if (exited) return false;
+            }
+            try {
+                process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        YoutubeDLResponse run(String id, Job job, List<String> args, LineCallback callback, long start)
+                throws YoutubeDLException, YoutubeDL.CanceledException {
+            cancelled = false;
+            currentId = id;
+            ArrayDeque<String> tail = new ArrayDeque<>();
+            try {
+                send(new JSONObject().put("op", "run").put("id", id).put("args", new JSONArray(args)));
+                // A cancel or rate change that raced with the send may have been dropped
+                if (job.cancelled) cancel(id);
+                if (job.rate >= 0) setRate(id, job.rate);
+                while (true) {
+                    String line = readProtocolLine();
+                    if (line == null) {
+                        if (cancelled) throw new YoutubeDL.CanceledException();
+                        throw new YoutubeDLException("yt-dlp worker exited unexpectedly");
+                    }
+                    if (line.startsWith(OUTPUT_PREFIX)) {
+                        String text = line.substring(OUTPUT_PREFIX.length());
+                        if (tail.size() == MAX_OUTPUT_LINES) tail.poll();
+                        tail.add(text);
+                        if (callback != null) dispatchLine(callback, text);
+                        continue;
+                    }
+                    JSONObject msg = parseMessage(line);
+                    if (msg == null || !id.equals(msg.optString("id"))) continue;
+                    if ("done".equals(msg.optString("event"))) {
+                        int code = msg.optInt("code", 1);
+                        String err = msg.optString("err");
+                        if (cancelled) throw new YoutubeDL.CanceledException();
+                        if (code != 0) throw new YoutubeDLException(err);
+                        return new YoutubeDLResponse(args, code, System.currentTimeMillis() - start,
+                                String.join("\n", tail), err);
+                    }
+                }
+            } catch (IOException | JSONException e) {
+                kill();
+                if (cancelled) throw new YoutubeDL.CanceledException();
+                throw new YoutubeDLException(e);
+            } finally {
+                currentId = null;
+            }
+        }
+
+        void cancel(String id) {
+            if (!id.equals(currentId)) return;
+            cancelled = true;
+            try {
+                send(new JSONObject().put("op", "cancel").put("id", id));
+            } catch (IOException | JSONException e) {
+                kill();
+            }
+        }
+
+        void setRate(String id, long bytesPerSec) {
+            if (!id.equals(currentId)) return;
+            try {
+                send(new JSONObject().put("op", "rate").put("id", id).put("rate", bytesPerSec));
+            } catch (IOException | JSONException e) {
+                AppLogger.w(TAG, "Failed to send rate to worker: " + e.getMessage());
+            }
+        }
+
+        void shutdown() {
+            shuttingDown = true;
+            try {
+                send(new JSONObject().put("op", "exit"));
+            } catch (IOException | JSONException e) {
+                kill();
+                return;
+            }
+            // Nobody reads its stdout any more; make sure it's gone and accounted for
+            killer.schedule(this::kill, CANCEL_GRACE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void kill() {
+            // SIGTERM; the worker takes its whole process group, ffmpeg included, with it
+            process.destroy();
+            markExited();
+        }
+
+        private void send(JSONObject msg) throws IOException {
+            synchronized (stdin) {
+                stdin.write(msg.toString());
+                stdin.write('\n');
+                stdin.flush();
+            }
+        }
+
+        /** Next protocol message, or null once the worker is gone. Output lines are skipped. */
+        JSONObject readMessage() throws IOException {
+            String line;
+            while ((line = readProtocolLine()) != null) {
+                if (line.startsWith(PROTOCOL_PREFIX)) {
+                    JSONObject msg = parseMessage(line);
+                    if (msg != null) return msg;
+                }
+            }
+            return null;
+        }
+
+        /** Next line with either prefix, or null once the worker is gone. */
+        private String readProtocolLine() throws IOException {
+            String line;
+            while ((line = stdout.readLine()) != null) {
+                if (line.startsWith(PROTOCOL_PREFIX) || line.startsWith(OUTPUT_PREFIX)) {
+                    return line;
+                }
+                // Stray output, e.g. from a child process sharing our stdout
+                AppLogger.d(TAG, line);
+            }
+            markExited();
+            return null;
+        }
+
+        private JSONObject parseMessage(String line) {
+            try {
+                return new JSONObject(line.substring(PROTOCOL_PREFIX.length()));
+            } catch (JSONException e) {
+                AppLogger.w(TAG, "Bad worker message: " + e.getMessage());
+                return null;
+            }
+        }
+
+        private void markExited() {
+            synchronized (this) {
+                if (exited) return;
+                exited = true;
+            }
+            onWorkerExit(this);
+        }
+
+        private void drainStderr() {
+            try (BufferedReader err = new BufferedReader(
+                    new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = err.readLine()) != null) {
+                    AppLogger.w(TAG, line);
+                }
+            } catch (IOException ignored) {
+                // Process gone
+            }
+        }
+    }
+
+    private static void dispatchLine(LineCallback callback, String line) {
+        float progress = -1f;
+        long eta = -1;
+        // Downloads print --progress-template lines, which callers scan themselves; only
+        // match the human-readable form so those don't each cost a Matcher
+        if (line.startsWith("[download]")) {
+            Matcher m = PROGRESS_LINE.matcher(line);
+            if (m.find()) {
+                progress = Float.parseFloat(m.group(1));
+                eta = Long.parseLong(m.group(2)) * 60 + Long.parseLong(m.group(3));
+            }
+        }
+        callback.onLine(progress, eta, line);
+    }
+}
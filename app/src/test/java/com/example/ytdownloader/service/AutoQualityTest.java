@@ -0,0 +1,72 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.model.VideoInfo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AutoQualityTest {
+    private static final long MB = 1024 * 1024;
+
+    private static VideoInfo.FormatOption format(String quality, long size) {
+        return new VideoInfo.FormatOption(quality, quality, "mp4", "mp4", size, false, true);
+    }
+
+    private static final List<VideoInfo.FormatOption> FORMATS = Arrays.asList(
+            format("360p", 10 * MB),
+            format("720p", 40 * MB),
+            format("1080p", 100 * MB));
+
+    @Test
+    public void emptyFormatsGiveNoPick() {
+        assertNull(AutoQuality.select(Collections.emptyList(), MB, 60, 0));
+        assertNull(AutoQuality.select(null, MB, 60, 0));
+    }
+
+    @Test
+    public void noBudgetPicksHighest() {
+        assertEquals("1080p", AutoQuality.select(FORMATS, 0, 0, 0).getQuality());
+    }
+
+    @Test
+    public void timeBudgetUsesThroughput() {
+        // 1 MB/s for 60 s fits 40 MB but not 100 MB
+        assertEquals("720p", AutoQuality.select(FORMATS, MB, 60, 0).getQuality());
+        assertEquals("1080p", AutoQuality.select(FORMATS, 2 * MB, 60, 0).getQuality());
+    }
+
+    @Test
+    public void dataBudgetCapsSize() {
+        assertEquals("360p", AutoQuality.select(FORMATS, 10 * MB, 60, 20 * MB).getQuality());
+    }
+
+    @Test
+    public void nothingFitsFallsBackToLowest() {
+        assertEquals("360p", AutoQuality.select(FORMATS, 1024, 1, 0).getQuality());
+        assertEquals("360p", AutoQuality.select(FORMATS, 0, 0, MB).getQuality());
+    }
+
+    @Test
+    public void noEstimateFallsBackToDataBudget() {
+        assertEquals("720p", AutoQuality.select(FORMATS, 0, 60, 50 * MB).getQuality());
+    }
+
+    @Test
+    public void noEstimateWithoutDataBudgetPicksLowest() {
+        assertEquals("360p", AutoQuality.select(FORMATS, 0, 60, 0).getQuality());
+    }
+
+    @Test
+    public void unknownSizesAreSkipped() {
+        List<VideoInfo.FormatOption> formats = Arrays.asList(
+                format("360p", 10 * MB),
+                format("1080p", 0));
+        assertEquals("360p", AutoQuality.select(formats, 0, 0, 0).getQuality());
+    }
+}
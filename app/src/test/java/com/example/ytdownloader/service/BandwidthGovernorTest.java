@@ -0,0 +1,84 @@
+package com.example.ytdownloader.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthGovernorTest {
+    @Test
+    public void unlimitedGivesNoRate() {
+        BandwidthGovernor governor = new BandwidthGovernor(0);
+        assertEquals(0, governor.open("a").getRate());
+        assertEquals(0, governor.getRate("unknown"));
+    }
+
+    @Test
+    public void splitsLimitEquallyAndRebalancesOnRelease() {
+        BandwidthGovernor governor = new BandwidthGovernor(900);
+        BandwidthGovernor.Lease a = governor.open("a");
+        assertEquals(900, a.getRate());
+        governor.open("b");
+        governor.open("c");
+        assertEquals(300, governor.getRate("a"));
+        assertEquals(300, governor.getRate("c"));
+        governor.release("b");
+        assertEquals(450, governor.getRate("a"));
+        assertEquals(0, governor.getRate("b"));
+        governor.release("b");
+        assertEquals(450, governor.getRate("c"));
+    }
+
+    @Test
+    public void openIsIdempotent() {
+        BandwidthGovernor governor = new BandwidthGovernor(1000);
+        BandwidthGovernor.Lease first = governor.open("a");
+        assertTrue(first == governor.open("a"));
+        assertEquals(1000, first.getRate());
+    }
+
+    @Test
+    public void weightsShareProportionally() {
+        BandwidthGovernor governor = new BandwidthGovernor(1000);
+        governor.open("bulk");
+        governor.open("manual");
+        governor.setWeight("manual", 3);
+        assertEquals(250, governor.getRate("bulk"));
+        assertEquals(750, governor.getRate("manual"));
+        // Weights below 1 are raised to 1; unknown tasks are ignored
+        governor.setWeight("manual", 0);
+        governor.setWeight("unknown", 5);
+        assertEquals(500, governor.getRate("bulk"));
+    }
+
+    @Test
+    public void limitChangeRebalancesRunningLeases() {
+        BandwidthGovernor governor = new BandwidthGovernor(1000);
+        governor.open("a");
+        governor.open("b");
+        governor.setLimit(4000);
+        assertEquals(2000, governor.getRate("a"));
+        governor.setLimit(0);
+        assertEquals(0, governor.getRate("b"));
+    }
+
+    @Test(timeout = 5000)
+    public void acquireThrottlesToShare() throws InterruptedException {
+        BandwidthGovernor governor = new BandwidthGovernor(1_000_000);
+        BandwidthGovernor.Lease lease = governor.open("a");
+        long start = System.nanoTime();
+        // Starts with an empty bucket: 200 KB at 1 MB/s is ~200 ms
+        lease.acquire(100_000);
+        lease.acquire(100_000);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("took " + elapsedMs + "ms", elapsedMs >= 150);
+    }
+
+    @Test(timeout = 5000)
+    public void unlimitedAcquireDoesNotWait() throws InterruptedException {
+        BandwidthGovernor.Lease lease = new BandwidthGovernor(0).open("a");
+        long start = System.nanoTime();
+        lease.acquire(100_000_000);
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 100);
+    }
+}
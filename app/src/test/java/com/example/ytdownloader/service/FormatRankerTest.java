@@ -0,0 +1,137 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.model.VideoInfo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FormatRankerTest {
+    // Hardware AVC and VP9, software-only AV1, no HEVC
+    private static final FormatRanker.Decoders DECODERS = (vcodec, width, height, fps) -> {
+        switch (FormatRanker.videoFamily(vcodec)) {
+            case "avc":
+            case "vp9": return FormatRanker.Decoders.HARDWARE;
+            case "av01": return FormatRanker.Decoders.SOFTWARE;
+            default: return FormatRanker.Decoders.NONE;
+        }
+    };
+
+    private static FormatRanker ranker(boolean hdrDisplay) {
+        return new FormatRanker()
+                .add(FormatRanker::codecEfficiency, 1.0)
+                .add(f -> FormatRanker.decoderSupport(DECODERS, f), 2.0)
+                .add(FormatRanker::bitsPerPixel, 1.0)
+                .add(FormatRanker::highFrameRate, 0.3)
+                .add(f -> FormatRanker.hdr(hdrDisplay, f), 1.0)
+                .add(FormatRanker::audioBitrate, 1.0)
+                .add(FormatRanker::muxed, 0.3);
+    }
+
+    private static VideoInfo.FormatOption video(String id, String vcodec, int height, double tbr) {
+        VideoInfo.FormatOption f = new VideoInfo.FormatOption(id, height + "p", "mp4", "mp4", 1000, false, true);
+        f.setCodecs(vcodec, "none");
+        f.setDimensions(height * 16 / 9, height);
+        f.setFps(30);
+        f.setTbr(tbr);
+        return f;
+    }
+
+    private static VideoInfo.FormatOption audio(String id, String acodec, double kbps) {
+        VideoInfo.FormatOption f = new VideoInfo.FormatOption(id, (int) kbps + "kbps", "webm", "webm", 100, true, false);
+        f.setCodecs("none", acodec);
+        f.setTbr(kbps);
+        return f;
+    }
+
+    @Test
+    public void codecEfficiencyOrdersAv1Vp9Avc() {
+        double av1 = FormatRanker.codecEfficiency(video("399", "av01.0.08M.08", 1080, 1500));
+        double vp9 = FormatRanker.codecEfficiency(video("248", "vp9", 1080, 1500));
+        double avc = FormatRanker.codecEfficiency(video("137", "avc1.640028", 1080, 1500));
+        assertTrue(av1 > vp9);
+        assertTrue(vp9 > avc);
+    }
+
+    @Test
+    public void hardwareDecodableCodecBeatsMoreEfficientSoftwareOne() {
+        VideoInfo.FormatOption av1 = video("399", "av01.0.08M.08", 1080, 1500);
+        VideoInfo.FormatOption vp9 = video("248", "vp9", 1080, 1500);
+        List<VideoInfo.FormatOption> best = ranker(false).bestPerHeight(Arrays.asList(av1, vp9));
+        assertEquals(1, best.size());
+        assertEquals("248", best.get(0).getFormatId());
+    }
+
+    @Test
+    public void undecodableCodecLosesEvenAtLowerBitrate() {
+        VideoInfo.FormatOption hevc = video("hevc", "hev1.1.6.L120", 1080, 800);
+        VideoInfo.FormatOption avc = video("137", "avc1.640028", 1080, 4000);
+        assertEquals("137", ranker(false).best(Arrays.asList(hevc, avc)).getFormatId());
+    }
+
+    @Test
+    public void lowerBitrateWinsForSameCodecAndSize() {
+        VideoInfo.FormatOption lean = video("a", "vp9", 720, 1000);
+        VideoInfo.FormatOption bloated = video("b", "vp9", 720, 6000);
+        assertEquals("a", ranker(false).best(Arrays.asList(bloated, lean)).getFormatId());
+    }
+
+    @Test
+    public void hdrOnlyPreferredOnHdrDisplay() {
+        VideoInfo.FormatOption sdr = video("248", "vp9", 2160, 12000);
+        VideoInfo.FormatOption hdr = video("337", "vp9.2", 2160, 12000);
+        hdr.setDynamicRange("HDR10");
+        sdr.setDynamicRange("SDR");
+        List<VideoInfo.FormatOption> both = Arrays.asList(sdr, hdr);
+        assertEquals("248", ranker(false).best(both).getFormatId());
+        assertEquals("337", ranker(true).best(both).getFormatId());
+    }
+
+    @Test
+    public void bestPerHeightKeepsOnePerHeightAscending() {
+        List<VideoInfo.FormatOption> best = ranker(false).bestPerHeight(Arrays.asList(
+                video("137", "avc1.640028", 1080, 4000),
+                video("136", "avc1.4d401f", 720, 2500),
+                video("248", "vp9", 1080, 2500),
+                video("247", "vp9", 720, 1500)));
+        assertEquals(2, best.size());
+        assertEquals(720, best.get(0).getHeight());
+        assertEquals("247", best.get(0).getFormatId());
+        assertEquals("248", best.get(1).getFormatId());
+    }
+
+    @Test
+    public void audioPairingPrefersOpusAtTransparentBitrate() {
+        VideoInfo.FormatOption aac = audio("140", "mp4a.40.2", 128);
+        VideoInfo.FormatOption opus = audio("251", "opus", 160);
+        VideoInfo.FormatOption lowOpus = audio("250", "opus", 70);
+        VideoInfo.FormatOption mergeAudio = ranker(false).best(Arrays.asList(aac, lowOpus, opus));
+        assertEquals("251", mergeAudio.getFormatId());
+
+        VideoInfo.FormatOption videoOnly = video("248", "vp9", 1080, 2500);
+        videoOnly.setBestAudio(mergeAudio);
+        assertEquals("248+251", videoOnly.getFormatSpec());
+        assertEquals(1100, videoOnly.getDownloadSize());
+    }
+
+    @Test
+    public void bestPerBitrateGroupsByWholeKbps() {
+        List<VideoInfo.FormatOption> best = ranker(false).bestPerBitrate(Arrays.asList(
+                audio("140", "mp4a.40.2", 129.5),
+                audio("251", "opus", 129.1),
+                audio("249", "opus", 50)));
+        assertEquals(2, best.size());
+        assertEquals("249", best.get(0).getFormatId());
+        assertEquals("251", best.get(1).getFormatId());
+    }
+
+    @Test
+    public void bestOfNothingIsNull() {
+        assertNull(ranker(false).best(Arrays.asList()));
+    }
+}
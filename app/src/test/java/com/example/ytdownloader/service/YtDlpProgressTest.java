@@ -0,0 +1,86 @@
+package com.example.ytdownloader.service;
+
+import com.example.ytdownloader.model.DownloadTask;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class YtDlpProgressTest {
+    private final YtDlpProgress progress = new YtDlpProgress();
+
+    @Test
+    public void scansDownloadLine() {
+        assertTrue(progress.scan("[ytp] downloading 1048576 4194304 NA 524288.5 6 NA NA"));
+        assertEquals(DownloadTask.Phase.DOWNLOAD, progress.getPhase());
+        assertFalse(progress.isFinished());
+        assertEquals(1048576, progress.getDownloadedBytes());
+        assertEquals(4194304, progress.getTotalBytes());
+        assertEquals(524288, progress.getSpeed());
+        assertEquals(6, progress.getEtaSeconds());
+        assertEquals(-1, progress.getFragmentIndex());
+        assertEquals(25, progress.getPercent());
+    }
+
+    @Test
+    public void fallsBackToEstimatedTotal() {
+        assertTrue(progress.scan("[ytp] downloading 500 NA 2000.0 NA NA 3 12"));
+        assertEquals(2000, progress.getTotalBytes());
+        assertEquals(-1, progress.getSpeed());
+        assertEquals(3, progress.getFragmentIndex());
+        assertEquals(12, progress.getFragmentCount());
+    }
+
+    @Test
+    public void readsExponentNumbers() {
+        assertTrue(progress.scan("[ytp] downloading 1.5e+06 3E6 NA 2.5e-1 NA NA NA"));
+        assertEquals(1500000, progress.getDownloadedBytes());
+        assertEquals(3000000, progress.getTotalBytes());
+        assertEquals(0, progress.getSpeed());
+    }
+
+    @Test
+    public void finishedLine() {
+        assertTrue(progress.scan("[ytp] finished 4194304 4194304 NA NA NA NA NA"));
+        assertTrue(progress.isFinished());
+        assertEquals(100, progress.getPercent());
+    }
+
+    @Test
+    public void percentIsClampedAndUnknownWithoutTotal() {
+        assertTrue(progress.scan("[ytp] downloading 3000 NA 2000 NA NA NA NA"));
+        assertEquals(100, progress.getPercent());
+        assertTrue(progress.scan("[ytp] downloading 3000 NA NA NA NA NA NA"));
+        assertEquals(-1, progress.getPercent());
+    }
+
+    @Test
+    public void postprocessLinesSetPhase() {
+        assertTrue(progress.scan("[ytpp] started Merger"));
+        assertEquals(DownloadTask.Phase.MERGE, progress.getPhase());
+        assertFalse(progress.isFinished());
+        assertTrue(progress.scan("[ytpp] finished FixupM4a"));
+        assertEquals(DownloadTask.Phase.POSTPROCESS, progress.getPhase());
+        assertTrue(progress.isFinished());
+        assertEquals(-1, progress.getEtaSeconds());
+    }
+
+    @Test
+    public void ignoresOtherLinesAndKeepsFields() {
+        assertTrue(progress.scan("[ytp] downloading 10 100 NA NA NA NA NA"));
+        assertFalse(progress.scan("[download] Destination: /x/video.f137.mp4"));
+        assertFalse(progress.scan("[ytp]"));
+        assertFalse(progress.scan(null));
+        assertEquals(10, progress.getDownloadedBytes());
+    }
+
+    @Test
+    public void garbageFieldsReadAsUnknown() {
+        assertTrue(progress.scan("  [ytp] downloading 12abc None NA -5 NA NA NA"));
+        assertEquals(-1, progress.getDownloadedBytes());
+        assertEquals(-1, progress.getTotalBytes());
+        assertEquals(-1, progress.getSpeed());
+    }
+}